@@ -0,0 +1,126 @@
+package com.tm.orm.benchmark;
+
+import com.tm.orm.benchmark.entity.BenchUser;
+import com.tm.orm.silence.core.Table;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.*;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 10:30
+ * @desc 端到端基准测试的环境：h2内存库 + HikariCP，Silence通过spring容器初始化Table，MyBatis使用同一个连接池。
+ * 开始前插入SEED_ROWS行供查询使用，每轮结束后删除插入的数据，保证每轮的表大小相同
+ */
+@State(Scope.Benchmark)
+public class BenchEnv {
+    //预先插入的行数
+    public static final int SEED_ROWS = 1000;
+    //动态sql中foreach的元素个数
+    private static final int DYNAMIC_IDS = 10;
+
+    private HikariDataSource dataSource;
+    private AnnotationConfigApplicationContext context;
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        HikariConfig config = new HikariConfig();
+        //Silence用反引号包裹列名，需要MySQL模式，并且未加引号的标识符保存为小写
+        config.setJdbcUrl("jdbc:h2:mem:silence;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        config.setMaximumPoolSize(8);
+        dataSource = new HikariDataSource(config);
+        createTable();
+        //Table和SqlExecutor是spring组件，通过容器注入数据源
+        context = new AnnotationConfigApplicationContext();
+        context.getBeanFactory().registerSingleton("dataSource", dataSource);
+        context.scan("com.tm.orm.silence.core");
+        context.refresh();
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.addMapper(BenchMapper.class);
+        sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() {
+        Table.simpleUpdate("delete from bench_user where id > ?", SEED_ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        context.close();
+        dataSource.close();
+    }
+
+    /**
+     * @params [executorType 执行器类型]
+     * @desc 打开自动提交的MyBatis会话，每次操作一个会话，与Silence每次操作从连接池取连接相当
+     **/
+    public SqlSession openSession(ExecutorType executorType) {
+        return sqlSessionFactory.openSession(executorType, true);
+    }
+
+    /**
+     * @desc 随机取一个预先插入的主键
+     **/
+    public static long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, SEED_ROWS + 1);
+    }
+
+    /**
+     * @desc 创建一个所有字段都有值、主键为null的对象
+     **/
+    public static BenchUser newUser() {
+        int i = ThreadLocalRandom.current().nextInt(SEED_ROWS);
+        return new BenchUser("user" + i, i % 100, i * 0.5, "user" + i + "@silence.com");
+    }
+
+    /**
+     * @desc 动态sql的参数，name为null时对应的if不生效
+     **/
+    public static Map<String, Object> dynamicParam() {
+        List<Long> ids = new ArrayList<>(DYNAMIC_IDS);
+        for (int i = 0; i < DYNAMIC_IDS; ++i) {
+            ids.add(randomId());
+        }
+        Map<String, Object> param = new HashMap<>();
+        param.put("name", null);
+        param.put("minAge", 18);
+        param.put("ids", ids);
+        return param;
+    }
+
+    private void createTable() throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute("create table bench_user (id bigint auto_increment primary key, name varchar(64), age int, score double, email varchar(128))");
+            }
+            try (PreparedStatement pst = con.prepareStatement("insert into bench_user (name, age, score, email) values (?, ?, ?, ?)")) {
+                for (int i = 0; i < SEED_ROWS; ++i) {
+                    BenchUser user = newUser();
+                    pst.setString(1, user.getName());
+                    pst.setInt(2, user.getAge());
+                    pst.setDouble(3, user.getScore());
+                    pst.setString(4, user.getEmail());
+                    pst.addBatch();
+                }
+                pst.executeBatch();
+            }
+        }
+    }
+}
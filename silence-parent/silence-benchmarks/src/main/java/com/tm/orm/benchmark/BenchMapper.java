@@ -0,0 +1,37 @@
+package com.tm.orm.benchmark;
+
+import com.tm.orm.benchmark.entity.BenchUser;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 10:10
+ * @desc 与Silence对比的MyBatis映射，语句与CrudBenchmark中Silence执行的语句保持一致
+ */
+public interface BenchMapper {
+    @Select("select * from bench_user where id = #{id}")
+    BenchUser selectById(@Param("id") long id);
+
+    @Select("select * from bench_user where age >= #{minAge} order by id limit 100")
+    List<BenchUser> selectList(@Param("minAge") int minAge);
+
+    @Select("<script>select * from bench_user <where><if test='name != null'>and name = #{name} </if><if test='minAge != null'>and age &gt;= #{minAge} </if>"
+            + "and <foreach collection='ids' item='id' open='(' separator='or' close=')'>id = #{id} </foreach></where></script>")
+    List<BenchUser> selectDynamic(Map<String, Object> param);
+
+    @Insert("insert into bench_user (name, age, score, email) values (#{name}, #{age}, #{score}, #{email})")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int insert(BenchUser user);
+
+    /**
+     * @desc 批量插入时使用，与Table.insertList一样不回显主键
+     **/
+    @Insert("insert into bench_user (name, age, score, email) values (#{name}, #{age}, #{score}, #{email})")
+    int insertWithoutKey(BenchUser user);
+
+    @Update("update bench_user set name = #{name}, age = #{age}, score = #{score}, email = #{email} where id = #{id}")
+    int updateById(BenchUser user);
+}
@@ -0,0 +1,122 @@
+package com.tm.orm.benchmark;
+
+import com.tm.orm.benchmark.entity.BenchUser;
+import com.tm.orm.silence.core.Table;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 11:00
+ * @desc Table端到端的增删改查基准测试，每个操作都有对应的MyBatis实现，执行相同的sql，便于对比。
+ * 运行：mvn -pl silence-benchmarks -am package && java -jar silence-benchmarks/target/benchmarks.jar CrudBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrudBenchmark {
+    //批量插入的行数
+    private static final int LIST_SIZE = 100;
+
+    @Benchmark
+    public BenchUser silenceSelectById(BenchEnv env) {
+        return Table.selectById(BenchUser.class, BenchEnv.randomId());
+    }
+
+    @Benchmark
+    public BenchUser mybatisSelectById(BenchEnv env) {
+        try (SqlSession session = env.openSession(ExecutorType.SIMPLE)) {
+            return session.getMapper(BenchMapper.class).selectById(BenchEnv.randomId());
+        }
+    }
+
+    @Benchmark
+    public List<BenchUser> silenceSelectList(BenchEnv env) {
+        return Table.simpleSelectList(BenchUser.class, "select * from bench_user where age >= ? order by id limit 100", 18);
+    }
+
+    @Benchmark
+    public List<BenchUser> mybatisSelectList(BenchEnv env) {
+        try (SqlSession session = env.openSession(ExecutorType.SIMPLE)) {
+            return session.getMapper(BenchMapper.class).selectList(18);
+        }
+    }
+
+    @Benchmark
+    public List<BenchUser> silenceSelectDynamic(BenchEnv env) {
+        return Table.selectList(BenchUser.class, SqlBuilderBenchmark.DYNAMIC_SQL, BenchEnv.dynamicParam());
+    }
+
+    @Benchmark
+    public List<BenchUser> mybatisSelectDynamic(BenchEnv env) {
+        try (SqlSession session = env.openSession(ExecutorType.SIMPLE)) {
+            return session.getMapper(BenchMapper.class).selectDynamic(BenchEnv.dynamicParam());
+        }
+    }
+
+    @Benchmark
+    public int silenceInsert(BenchEnv env) {
+        return Table.insertAndEchoId(BenchEnv.newUser());
+    }
+
+    @Benchmark
+    public int mybatisInsert(BenchEnv env) {
+        try (SqlSession session = env.openSession(ExecutorType.SIMPLE)) {
+            return session.getMapper(BenchMapper.class).insert(BenchEnv.newUser());
+        }
+    }
+
+    @Benchmark
+    public int silenceInsertList(BenchEnv env) {
+        return Table.insertList(newUsers());
+    }
+
+    @Benchmark
+    public int mybatisInsertList(BenchEnv env) {
+        try (SqlSession session = env.openSession(ExecutorType.BATCH)) {
+            BenchMapper mapper = session.getMapper(BenchMapper.class);
+            for (BenchUser user : newUsers()) {
+                mapper.insertWithoutKey(user);
+            }
+            int rows = 0;
+            for (BatchResult result : session.flushStatements()) {
+                for (int count : result.getUpdateCounts()) {
+                    rows += count;
+                }
+            }
+            return rows;
+        }
+    }
+
+    @Benchmark
+    public int silenceUpdateById(BenchEnv env) {
+        BenchUser user = BenchEnv.newUser();
+        user.setId(BenchEnv.randomId());
+        return Table.updateById(user);
+    }
+
+    @Benchmark
+    public int mybatisUpdateById(BenchEnv env) {
+        BenchUser user = BenchEnv.newUser();
+        user.setId(BenchEnv.randomId());
+        try (SqlSession session = env.openSession(ExecutorType.SIMPLE)) {
+            return session.getMapper(BenchMapper.class).updateById(user);
+        }
+    }
+
+    private static List<BenchUser> newUsers() {
+        List<BenchUser> users = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; ++i) {
+            users.add(BenchEnv.newUser());
+        }
+        return users;
+    }
+}
@@ -0,0 +1,69 @@
+package com.tm.orm.benchmark;
+
+import com.tm.orm.benchmark.entity.BenchUser;
+import com.tm.orm.silence.util.ResultSetUtil;
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 9:50
+ * @desc 结果集映射的基准测试，使用h2的内存结果集，不含驱动和网络的开销。handWritten是手写的映射代码，作为性能上限参照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MappingBenchmark {
+    //结果集的行数
+    @Param({"1", "100", "1000"})
+    public int rows;
+    private SimpleResultSet rs;
+
+    @Setup
+    public void setup() {
+        rs = new SimpleResultSet();
+        //读完后不关闭，每次通过beforeFirst重新读取
+        rs.setAutoClose(false);
+        rs.addColumn("id", Types.BIGINT, 19, 0);
+        rs.addColumn("name", Types.VARCHAR, 64, 0);
+        rs.addColumn("age", Types.INTEGER, 10, 0);
+        rs.addColumn("score", Types.DOUBLE, 17, 0);
+        rs.addColumn("email", Types.VARCHAR, 128, 0);
+        for (int i = 1; i <= rows; ++i) {
+            rs.addRow((long) i, "user" + i, i % 100, i * 0.5, "user" + i + "@silence.com");
+        }
+    }
+
+    @Benchmark
+    public List<BenchUser> mappingAll() throws Exception {
+        rs.beforeFirst();
+        return ResultSetUtil.mappingAll(rs, BenchUser.class);
+    }
+
+    @Benchmark
+    public List<BenchUser> handWritten() throws SQLException {
+        rs.beforeFirst();
+        List<BenchUser> list = new ArrayList<>();
+        while (rs.next()) {
+            BenchUser user = new BenchUser();
+            user.setId(rs.getLong(1));
+            user.setName(rs.getString(2));
+            int age = rs.getInt(3);
+            user.setAge(rs.wasNull() ? null : age);
+            double score = rs.getDouble(4);
+            user.setScore(rs.wasNull() ? null : score);
+            user.setEmail(rs.getString(5));
+            list.add(user);
+        }
+        return list;
+    }
+}
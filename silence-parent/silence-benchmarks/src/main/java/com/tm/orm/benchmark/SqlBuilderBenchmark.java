@@ -0,0 +1,64 @@
+package com.tm.orm.benchmark;
+
+import com.tm.orm.benchmark.entity.BenchUser;
+import com.tm.orm.silence.core.BatchSql;
+import com.tm.orm.silence.core.BoundSql;
+import com.tm.orm.silence.core.SqlBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 9:30
+ * @desc sql构建的基准测试，不访问数据库，只测量动态sql模板和实体sql的构建耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlBuilderBenchmark {
+    //同时含有where、if和foreach的动态sql
+    static final String DYNAMIC_SQL = "select * from bench_user @[&[name != null: and name = #{name} ] &[minAge != null: and age >= #{minAge} ] and %[o=(,c=),s=or,i=id,v=ids: id = #{id} ]]";
+    //批量构建时的行数
+    private static final int LIST_SIZE = 100;
+
+    private final SqlBuilder sqlBuilder = new SqlBuilder();
+    private Map<String, Object> param;
+    private BenchUser user;
+    private List<BenchUser> users;
+
+    @Setup
+    public void setup() {
+        param = BenchEnv.dynamicParam();
+        user = BenchEnv.newUser();
+        user.setId(1L);
+        users = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; ++i) {
+            users.add(BenchEnv.newUser());
+        }
+    }
+
+    @Benchmark
+    public BoundSql buildDynamic() {
+        return sqlBuilder.build(DYNAMIC_SQL, param);
+    }
+
+    @Benchmark
+    public BoundSql buildInsert() {
+        return sqlBuilder.buildInsertSql(user);
+    }
+
+    @Benchmark
+    public BatchSql buildInsertList() {
+        return sqlBuilder.buildInsertListSql(users);
+    }
+
+    @Benchmark
+    public BoundSql buildUpdateById() {
+        return sqlBuilder.buildUpdateByIdSql(user);
+    }
+}
@@ -0,0 +1,64 @@
+package com.tm.orm.benchmark.entity;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 9:10
+ * @desc 基准测试使用的实体，对应表bench_user
+ */
+public class BenchUser {
+    private Long id;
+    private String name;
+    private Integer age;
+    private Double score;
+    private String email;
+
+    public BenchUser() {
+    }
+
+    public BenchUser(String name, Integer age, Double score, String email) {
+        this.name = name;
+        this.age = age;
+        this.score = score;
+        this.email = email;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getAge() {
+        return age;
+    }
+
+    public void setAge(Integer age) {
+        this.age = age;
+    }
+
+    public Double getScore() {
+        return score;
+    }
+
+    public void setScore(Double score) {
+        this.score = score;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+}
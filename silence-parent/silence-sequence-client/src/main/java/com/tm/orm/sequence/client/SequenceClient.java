@@ -0,0 +1,106 @@
+package com.tm.orm.sequence.client;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import com.tm.orm.sequence.segment.Segment;
+import com.tm.orm.sequence.segment.SegmentBuffer;
+import com.tm.orm.sequence.vo.GetIdReq;
+import com.tm.orm.sequence.vo.IdRange;
+import com.tm.orm.silence.core.IdGenerator;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/4 10:30
+ * @Desc 发号服务的客户端，每张表一个双号段缓冲，每次通过/getIds取batchSize个id，剩余不足20%时在后台补充，
+ * 正常情况下取号不需要等待http请求。作为IdGenerator配置给SqlExecutor后，插入主键标注了@GeneratedId的实体前预先分配主键
+ */
+public class SequenceClient implements IdGenerator, AutoCloseable {
+    private static final String GET_IDS = "/silence/sequence/getIds";
+    //后台补充号段的最大线程数
+    private static final int LOADER_THREADS = 4;
+
+    private final RestTemplate restTemplate;
+    //getIds接口的地址
+    private final String url;
+    //发号服务中的库名
+    private final String db;
+    //每次取号的数量
+    private final int batchSize;
+    //表名->号段缓冲
+    private final ConcurrentMap<String, SegmentBuffer> pools = new ConcurrentHashMap<>();
+    //后台补充号段的线程池
+    private final ThreadPoolExecutor executor = SegmentBuffer.newLoaderExecutor("silence-sequence-client-", LOADER_THREADS);
+
+    /**
+     * @params [baseUrl 发号服务的地址, db 库名, batchSize 每次取号的数量]
+     * @desc 使用默认的RestTemplate
+     **/
+    public SequenceClient(String baseUrl, String db, int batchSize) {
+        this(new RestTemplate(), baseUrl, db, batchSize);
+    }
+
+    /**
+     * @params [restTemplate 配置好超时和连接池的RestTemplate, baseUrl 发号服务的地址, db 库名, batchSize 每次取号的数量]
+     * @desc 使用指定的RestTemplate
+     **/
+    public SequenceClient(RestTemplate restTemplate, String baseUrl, String db, int batchSize) {
+        if (batchSize <= 0) {
+            throw new SequenceException("batchSize must be greater than 0");
+        }
+        this.restTemplate = restTemplate;
+        this.url = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) + GET_IDS : baseUrl + GET_IDS;
+        this.db = db;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public long nextId(String table) {
+        return getPool(table).nextId();
+    }
+
+    /**
+     * @params [table 表名, size 数量]
+     * @desc 取size个连续的id，本地号段放不下时直接向发号服务请求
+     **/
+    @Override
+    public long[] nextIds(String table, int size) {
+        long start = getPool(table).nextRange(size);
+        if (start == Segment.EXHAUSTED) {
+            start = fetch(table, size).next(size);
+        }
+        long[] ids = new long[size];
+        for (int i = 0; i < size; ++i) {
+            ids[i] = start + i;
+        }
+        return ids;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private SegmentBuffer getPool(String table) {
+        SegmentBuffer pool = pools.get(table);
+        if (null != pool) {
+            return pool;
+        }
+        return pools.computeIfAbsent(table, k -> new SegmentBuffer(() -> fetch(table, batchSize), executor));
+    }
+
+    /**
+     * @params [table 表名, size 数量]
+     * @desc 通过/getIds取一段连续的id
+     **/
+    private Segment fetch(String table, int size) {
+        IdRange range = restTemplate.postForObject(url, new GetIdReq(db, table, size), IdRange.class);
+        if (null == range || null == range.getStart() || null == range.getSize() || range.getSize() < size) {
+            throw new SequenceException("invalid response of " + url + " for " + db + "." + table);
+        }
+        return new Segment(range.getStart(), range.getStart() + range.getSize() - 1);
+    }
+}
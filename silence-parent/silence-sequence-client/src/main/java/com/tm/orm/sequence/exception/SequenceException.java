@@ -0,0 +1,16 @@
+package com.tm.orm.sequence.exception;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 9:15
+ * @Desc 发号相关的异常
+ */
+public class SequenceException extends RuntimeException {
+    public SequenceException(String message) {
+        super(message);
+    }
+
+    public SequenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
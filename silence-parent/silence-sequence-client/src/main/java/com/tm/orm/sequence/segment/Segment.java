@@ -0,0 +1,72 @@
+package com.tm.orm.sequence.segment;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 9:20
+ * @Desc 号段，表示[start, max]这一段已经在数据库中预留的id，取号只对内存中的AtomicLong自增，不加锁
+ */
+public class Segment {
+    //号段用完时next()的返回值
+    public static final long EXHAUSTED = -1;
+    //还没有加载号段时使用的空号段
+    static final Segment EMPTY = new Segment(1, 0);
+    //剩余数量低于号段长度的这个比例时预取下一个号段
+    private static final double PREFETCH_RATIO = 0.2;
+
+    //号段内的最大id(包含)
+    private final long max;
+    //号段的长度
+    private final long length;
+    //下一个要发出的id
+    private final AtomicLong cursor;
+    //剩余数量不超过该值时需要预取
+    private final long threshold;
+
+    public Segment(long start, long max) {
+        this.max = max;
+        this.length = max - start + 1;
+        this.cursor = new AtomicLong(start);
+        this.threshold = (long) ((max - start + 1) * PREFETCH_RATIO);
+    }
+
+    /**
+     * @params []
+     * @desc 取下一个id，号段用完时返回EXHAUSTED。用完后cursor会继续增长，但不会再返回有效id
+     **/
+    public long next() {
+        long id = cursor.getAndIncrement();
+        return id <= max ? id : EXHAUSTED;
+    }
+
+    /**
+     * @params [size 数量]
+     * @desc 一次取size个连续的id，返回第一个，剩余不足size时返回EXHAUSTED，不足的部分随号段一起丢弃
+     **/
+    public long next(int size) {
+        long first = cursor.getAndAdd(size);
+        return first + size - 1 <= max ? first : EXHAUSTED;
+    }
+
+    /**
+     * @params []
+     * @desc 剩余数量是否已经低于预取的阈值
+     **/
+    public boolean shouldPrefetch() {
+        return max - cursor.get() < threshold;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{cursor=" + cursor.get() + ", max=" + max + "}";
+    }
+}
@@ -0,0 +1,129 @@
+package com.tm.orm.sequence.segment;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 9:40
+ * @Desc 双号段缓冲，当前号段剩余不足20%时异步加载下一个号段，当前号段用完后直接切换，
+ * 正常情况下取号不会等待数据库。只有切换号段时才加锁，且只有号段用完的线程会进入。
+ * 号段可以来自数据库，也可以来自发号服务的/getIds接口
+ */
+public class SegmentBuffer {
+    //从数据库加载号段
+    private final Supplier<Segment> loader;
+    //异步加载号段的线程池
+    private final Executor executor;
+    //当前号段
+    private volatile Segment current = Segment.EMPTY;
+    //正在加载或者已加载完成的下一个号段
+    private final AtomicReference<CompletableFuture<Segment>> next = new AtomicReference<>();
+
+    public SegmentBuffer(Supplier<Segment> loader, Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+    /**
+     * @params []
+     * @desc 取下一个id
+     **/
+    public long nextId() {
+        while (true) {
+            Segment segment = current;
+            long id = segment.next();
+            if (id != Segment.EXHAUSTED) {
+                if (next.get() == null && segment.shouldPrefetch()) {
+                    prefetch();
+                }
+                return id;
+            }
+            switchSegment(segment);
+        }
+    }
+
+    /**
+     * @params [size 数量]
+     * @desc 取size个连续的id，返回第一个。size超过号段长度时返回EXHAUSTED，由调用方单独分配
+     **/
+    public long nextRange(int size) {
+        while (true) {
+            Segment segment = current;
+            if (segment != Segment.EMPTY && size > segment.getLength()) {
+                return Segment.EXHAUSTED;
+            }
+            long start = segment.next(size);
+            if (start != Segment.EXHAUSTED) {
+                if (next.get() == null && segment.shouldPrefetch()) {
+                    prefetch();
+                }
+                return start;
+            }
+            switchSegment(segment);
+        }
+    }
+
+    /**
+     * @params []
+     * @desc 丢弃内存中的号段，下次取号时重新从数据库加载，用于重置id之后
+     **/
+    public synchronized void reset() {
+        next.set(null);
+        current = Segment.EMPTY;
+    }
+
+    /**
+     * @params [prefix 线程名前缀, threads 最大线程数]
+     * @desc 创建加载号段的线程池，线程都忙时由取号的线程自己加载
+     **/
+    public static ThreadPoolExecutor newLoaderExecutor(String prefix, int threads) {
+        AtomicInteger index = new AtomicInteger();
+        return new ThreadPoolExecutor(1, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, prefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * @params []
+     * @desc 异步加载下一个号段，通过CAS保证同一时间只有一个加载任务
+     **/
+    private void prefetch() {
+        CompletableFuture<Segment> future = new CompletableFuture<>();
+        if (!next.compareAndSet(null, future)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                future.complete(loader.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * @params [exhausted 已经用完的号段]
+     * @desc 切换到下一个号段，预取失败或者还没有预取时同步加载
+     **/
+    private synchronized void switchSegment(Segment exhausted) {
+        //其他线程已经切换过了
+        if (current != exhausted) {
+            return;
+        }
+        CompletableFuture<Segment> future = next.getAndSet(null);
+        Segment segment = null;
+        if (null != future) {
+            try {
+                segment = future.join();
+            } catch (CompletionException ignored) {
+                //预取失败时下面重新同步加载一次，还失败则把异常抛给调用方
+            }
+        }
+        current = null != segment ? segment : loader.get();
+    }
+}
@@ -0,0 +1,47 @@
+package com.tm.orm.sequence.snowflake;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 14:40
+ * @Desc workerId租约表silence_worker对应的实体，表结构见resources/sql/silence_worker.sql
+ */
+public class SilenceWorker {
+    private Integer workerId;
+    //持有租约的进程
+    private String owner;
+    //租约到期的时间戳，毫秒
+    private Long expireTime;
+
+    public SilenceWorker() {
+    }
+
+    public SilenceWorker(Integer workerId, String owner, Long expireTime) {
+        this.workerId = workerId;
+        this.owner = owner;
+        this.expireTime = expireTime;
+    }
+
+    public Integer getWorkerId() {
+        return workerId;
+    }
+
+    public void setWorkerId(Integer workerId) {
+        this.workerId = workerId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Long getExpireTime() {
+        return expireTime;
+    }
+
+    public void setExpireTime(Long expireTime) {
+        this.expireTime = expireTime;
+    }
+}
@@ -0,0 +1,153 @@
+package com.tm.orm.sequence.snowflake;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import com.tm.orm.silence.core.IdGenerator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 15:30
+ * @Desc 进程内的雪花算法发号器，64位id由41位时间戳、10位workerId和12位序列号组成，按时间递增。
+ * 时间戳和序列号放在同一个AtomicLong中通过CAS更新，不加锁。时钟回拨不超过maxBackwardMillis时沿用上次的时间戳继续发号，
+ * 序列号用完时等待时钟追上，超过时抛出异常。workerId可以固定，也可以通过WorkerLease从数据库租用
+ */
+public class SnowflakeIdGenerator implements IdGenerator, AutoCloseable {
+    //起始时间 2021-01-01 00:00:00 UTC
+    public static final long EPOCH = 1609459200000L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    //默认允许的时钟回拨，毫秒
+    private static final long DEFAULT_MAX_BACKWARD_MILLIS = 1000;
+    //默认的租约时长，毫秒
+    private static final long DEFAULT_LEASE_MILLIS = 60_000;
+
+    //(时间戳 - EPOCH) << SEQUENCE_BITS | 序列号
+    private final AtomicLong state = new AtomicLong();
+    //固定的workerId，使用租约时为-1
+    private final int workerId;
+    //workerId的租约，固定workerId时为null
+    private final WorkerLease lease;
+    //允许的时钟回拨，毫秒
+    private final long maxBackwardMillis;
+    //时钟，毫秒时间戳
+    private final LongSupplier clock;
+
+    /**
+     * @params [workerId 固定的workerId，需要由使用方保证不重复]
+     * @desc 使用固定的workerId
+     **/
+    public SnowflakeIdGenerator(int workerId) {
+        this(workerId, DEFAULT_MAX_BACKWARD_MILLIS, System::currentTimeMillis);
+    }
+
+    /**
+     * @params [workerId 固定的workerId, maxBackwardMillis 允许的时钟回拨, clock 时钟]
+     * @desc 使用固定的workerId和指定的时钟，用于测试时钟回拨
+     **/
+    SnowflakeIdGenerator(int workerId, long maxBackwardMillis, LongSupplier clock) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new SequenceException("workerId must be between 0 and " + MAX_WORKER_ID);
+        }
+        this.workerId = workerId;
+        this.lease = null;
+        this.maxBackwardMillis = maxBackwardMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @params [leaseMillis 租约时长, maxBackwardMillis 允许的时钟回拨]
+     * @desc 通过silence_worker表租用workerId，第一次发号时获取租约
+     **/
+    public SnowflakeIdGenerator(long leaseMillis, long maxBackwardMillis) {
+        this.workerId = -1;
+        this.lease = new WorkerLease(MAX_WORKER_ID, leaseMillis);
+        this.maxBackwardMillis = maxBackwardMillis;
+        this.clock = System::currentTimeMillis;
+    }
+
+    /**
+     * @params []
+     * @desc 使用默认的租约时长和时钟回拨
+     **/
+    public SnowflakeIdGenerator() {
+        this(DEFAULT_LEASE_MILLIS, DEFAULT_MAX_BACKWARD_MILLIS);
+    }
+
+    @Override
+    public long nextId(String table) {
+        return nextId();
+    }
+
+    /**
+     * @params []
+     * @desc 生成下一个id
+     **/
+    public long nextId() {
+        long worker = null == lease ? workerId : lease.current(clock.getAsLong());
+        while (true) {
+            //每次重试都重新读取时钟，CAS失败或等待之后不能沿用旧的时间
+            long timestamp = clock.getAsLong() - EPOCH;
+            long last = state.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long next;
+            if (timestamp > lastTimestamp) {
+                next = timestamp << SEQUENCE_BITS;
+            } else {
+                //同一毫秒或时钟回拨，沿用上次的时间戳
+                if (lastTimestamp - timestamp > maxBackwardMillis) {
+                    throw new SequenceException("clock moved backwards by " + (lastTimestamp - timestamp) + "ms, refuse to generate id");
+                }
+                if ((last & SEQUENCE_MASK) == SEQUENCE_MASK) {
+                    //序列号用完，等待时钟走过上次的时间戳，不进位到未来的时间戳
+                    waitNextMillis(lastTimestamp);
+                    continue;
+                }
+                next = last + 1;
+            }
+            if (state.compareAndSet(last, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS) | worker << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * @params []
+     * @desc 释放workerId的租约，租约的到期时间设为已经发出的最大时间戳，接手的进程只能发出更晚的时间戳
+     **/
+    @Override
+    public void close() {
+        if (null != lease) {
+            lease.close((state.get() >>> SEQUENCE_BITS) + EPOCH);
+        }
+    }
+
+    /**
+     * @params [id 生成的id]
+     * @desc 解析id中的时间戳
+     **/
+    public static long getTimestamp(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * @params [id 生成的id]
+     * @desc 解析id中的workerId
+     **/
+    public static int getWorkerId(long id) {
+        return (int) (id >>> SEQUENCE_BITS & MAX_WORKER_ID);
+    }
+
+    /**
+     * @params [lastTimestamp 上次使用的时间戳]
+     * @desc 等待时钟超过上次使用的时间戳
+     **/
+    private void waitNextMillis(long lastTimestamp) {
+        while (clock.getAsLong() - EPOCH <= lastTimestamp) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.tm.orm.sequence.snowflake;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import com.tm.orm.silence.core.Table;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 15:00
+ * @Desc workerId的租约，保存在silence_worker表中，通过Table读写。第一次使用时获取，之后定时续约，
+ * 续约失败到租约到期后不再允许使用该workerId，其他进程只能获取已经到期的workerId，保证同一时刻每个workerId只有一个进程使用。
+ * 数据库操作都在续约线程中执行，不会加入调用方的事务
+ */
+public class WorkerLease implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(WorkerLease.class.getName());
+    //获取workerId时最多的尝试次数，每次失败都是被其他进程抢先
+    private static final int MAX_ATTEMPTS = 16;
+
+    //最大的workerId
+    private final int maxWorkerId;
+    //租约时长，毫秒
+    private final long leaseMillis;
+    //当前进程的标识，用于续约时确认租约仍然属于自己
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "#" + UUID.randomUUID().toString().substring(0, 8);
+    //获取和续约租约的线程
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "silence-worker-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //持有的workerId，没有获取时为-1
+    private volatile int workerId = -1;
+    //本地记录的租约到期时间，按发起续约的时间计算，不晚于数据库中的到期时间
+    private volatile long expireTime;
+    private volatile boolean closed;
+
+    public WorkerLease(int maxWorkerId, long leaseMillis) {
+        if (leaseMillis < 3) {
+            throw new SequenceException("leaseMillis must not be less than 3");
+        }
+        this.maxWorkerId = maxWorkerId;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * @params [now 当前时间戳]
+     * @desc 获取当前有效的workerId，第一次调用时获取租约，租约到期时抛出异常
+     **/
+    public int current(long now) {
+        if (now < expireTime) {
+            return workerId;
+        }
+        return slowCurrent(now);
+    }
+
+    /**
+     * @params []
+     * @desc 停止续约并释放租约，到期时间设为当前时间
+     **/
+    @Override
+    public void close() {
+        close(System.currentTimeMillis());
+    }
+
+    /**
+     * @params [lastTimestamp 使用该workerId发出的最大时间戳]
+     * @desc 停止续约并释放租约。到期时间设为当前时间和lastTimestamp中较大的一个而不是0，
+     * 其他进程要等自己的时钟超过这个时间才能获取该workerId，即使它的时钟比本进程慢，也不会发出重复的(时间戳, workerId, 序列号)
+     **/
+    public synchronized void close(long lastTimestamp) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        expireTime = 0;
+        scheduler.shutdownNow();
+        if (workerId >= 0) {
+            long expire = Math.max(System.currentTimeMillis(), lastTimestamp);
+            Table.simpleUpdate("update silence_worker set expire_time = ? where worker_id = ? and owner = ?", expire, workerId, owner);
+        }
+    }
+
+    private synchronized int slowCurrent(long now) {
+        if (closed) {
+            throw new SequenceException("worker lease is closed");
+        }
+        if (workerId < 0) {
+            try {
+                scheduler.submit(this::acquire).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SequenceException("interrupted while acquiring worker id", e);
+            } catch (ExecutionException e) {
+                throw new SequenceException("failed to acquire worker id", e.getCause());
+            }
+            long period = leaseMillis / 3;
+            scheduler.scheduleWithFixedDelay(this::renew, period, period, TimeUnit.MILLISECONDS);
+        }
+        if (System.currentTimeMillis() >= expireTime) {
+            throw new SequenceException("the lease of worker " + workerId + " has expired");
+        }
+        return workerId;
+    }
+
+    /**
+     * @params []
+     * @desc 获取workerId，优先使用已经到期的workerId，没有时插入新的workerId，被其他进程抢先时重试
+     **/
+    private void acquire() {
+        for (int i = 0; i < MAX_ATTEMPTS; ++i) {
+            long now = System.currentTimeMillis();
+            long expire = now + leaseMillis;
+            Integer expired = Table.simpleSelectOne(Integer.class, "select worker_id from silence_worker where expire_time < ? and worker_id <= ? order by worker_id limit 1", now, maxWorkerId);
+            if (null != expired) {
+                //按旧的到期时间做条件，只有一个进程能抢到
+                if (Table.simpleUpdate("update silence_worker set owner = ?, expire_time = ? where worker_id = ? and expire_time < ?", owner, expire, expired, now) == 1) {
+                    hold(expired, now);
+                    return;
+                }
+                continue;
+            }
+            Integer max = Table.simpleSelectOne(Integer.class, "select max(worker_id) from silence_worker");
+            int next = null == max ? 0 : max + 1;
+            if (next > maxWorkerId) {
+                throw new SequenceException("no worker id available, all " + (maxWorkerId + 1) + " worker ids are leased");
+            }
+            try {
+                Table.insert(new SilenceWorker(next, owner, expire));
+                hold(next, now);
+                return;
+            } catch (RuntimeException e) {
+                //主键冲突，被其他进程抢先插入
+                LOGGER.log(Level.FINE, "worker id " + next + " was taken, retry", e);
+            }
+        }
+        throw new SequenceException("failed to acquire worker id after " + MAX_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * @params []
+     * @desc 续约，租约已经被其他进程获取时重新获取一个workerId
+     **/
+    private void renew() {
+        long now = System.currentTimeMillis();
+        try {
+            if (Table.simpleUpdate("update silence_worker set expire_time = ? where worker_id = ? and owner = ?", now + leaseMillis, workerId, owner) == 1) {
+                expireTime = now + leaseMillis;
+                return;
+            }
+            LOGGER.warning("the lease of worker " + workerId + " was lost, acquire a new one");
+            acquire();
+        } catch (RuntimeException e) {
+            //数据库暂时不可用时等待下次续约，租约到期前仍然可以发号
+            LOGGER.log(Level.WARNING, "failed to renew the lease of worker " + workerId, e);
+        }
+    }
+
+    private void hold(int workerId, long now) {
+        this.workerId = workerId;
+        this.expireTime = now + leaseMillis;
+    }
+}
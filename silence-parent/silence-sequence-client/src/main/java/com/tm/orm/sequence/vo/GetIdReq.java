@@ -10,6 +10,9 @@ public class GetIdReq {
     private String table;
     private Integer size;
 
+    public GetIdReq() {
+    }
+
     public GetIdReq(String db, String table, Integer size) {
         this.db = db;
         this.table = table;
@@ -0,0 +1,35 @@
+package com.tm.orm.sequence.vo;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/4 10:10
+ * @Desc 批量获取id的响应体，表示[start, start + size)这一段连续的id
+ */
+public class IdRange {
+    private Long start;
+    private Integer size;
+
+    public IdRange() {
+    }
+
+    public IdRange(Long start, Integer size) {
+        this.start = start;
+        this.size = size;
+    }
+
+    public Long getStart() {
+        return start;
+    }
+
+    public void setStart(Long start) {
+        this.start = start;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+}
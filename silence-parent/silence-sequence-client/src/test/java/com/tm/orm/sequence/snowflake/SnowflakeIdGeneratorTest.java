@@ -0,0 +1,168 @@
+package com.tm.orm.sequence.snowflake;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/5 14:00
+ * @Desc 雪花算法的测试，通过可调的时钟模拟同一毫秒内序列号用完和时钟回拨
+ */
+public class SnowflakeIdGeneratorTest {
+    private static final int WORKER_ID = 7;
+    private static final int SEQUENCE_PER_MILLIS = 4096;
+    private static final long MAX_BACKWARD_MILLIS = 10;
+    private static final long START = SnowflakeIdGenerator.EPOCH + 1_000_000;
+
+    @Test
+    public void encodesTimestampAndWorkerId() {
+        FakeClock clock = new FakeClock(START);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(WORKER_ID, MAX_BACKWARD_MILLIS, clock);
+        long first = generator.nextId();
+        long second = generator.nextId();
+        assertEquals(START, SnowflakeIdGenerator.getTimestamp(first));
+        assertEquals(WORKER_ID, SnowflakeIdGenerator.getWorkerId(first));
+        assertEquals(first + 1, second);
+        clock.set(START + 1);
+        long third = generator.nextId();
+        assertEquals(START + 1, SnowflakeIdGenerator.getTimestamp(third));
+        assertTrue(third > second);
+    }
+
+    @Test
+    public void rejectsInvalidWorkerId() {
+        assertThrows(SequenceException.class, () -> new SnowflakeIdGenerator(-1));
+        assertThrows(SequenceException.class, () -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID + 1));
+    }
+
+    @Test
+    public void waitsForNextMillisWhenSequenceIsExhausted() throws Exception {
+        FakeClock clock = new FakeClock(START);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(WORKER_ID, MAX_BACKWARD_MILLIS, clock);
+        long last = exhaust(generator);
+        CompletableFuture<Long> next = CompletableFuture.supplyAsync(generator::nextId);
+        //时钟不走时一直等待，不会进位到未来的时间戳
+        Thread.sleep(100);
+        assertFalse(next.isDone());
+        clock.set(START + 1);
+        long id = next.get(5, TimeUnit.SECONDS);
+        assertEquals(START + 1, SnowflakeIdGenerator.getTimestamp(id));
+        assertTrue(id > last);
+    }
+
+    @Test
+    public void keepsLastTimestampWhenClockMovesBackSlightly() {
+        FakeClock clock = new FakeClock(START);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(WORKER_ID, MAX_BACKWARD_MILLIS, clock);
+        long first = generator.nextId();
+        clock.set(START - MAX_BACKWARD_MILLIS);
+        long second = generator.nextId();
+        assertEquals(START, SnowflakeIdGenerator.getTimestamp(second));
+        assertEquals(first + 1, second);
+    }
+
+    @Test
+    public void waitsForClockToCatchUpWhenSequenceIsExhaustedAfterRollback() throws Exception {
+        FakeClock clock = new FakeClock(START);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(WORKER_ID, MAX_BACKWARD_MILLIS, clock);
+        long last = exhaust(generator);
+        clock.set(START - 5);
+        CompletableFuture<Long> next = CompletableFuture.supplyAsync(generator::nextId);
+        Thread.sleep(50);
+        assertFalse(next.isDone());
+        //追上但没有超过上次的时间戳，仍然等待
+        clock.set(START);
+        Thread.sleep(50);
+        assertFalse(next.isDone());
+        clock.set(START + 1);
+        long id = next.get(5, TimeUnit.SECONDS);
+        assertEquals(START + 1, SnowflakeIdGenerator.getTimestamp(id));
+        assertTrue(id > last);
+    }
+
+    @Test
+    public void refusesWhenClockMovesBackTooFar() {
+        FakeClock clock = new FakeClock(START);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(WORKER_ID, MAX_BACKWARD_MILLIS, clock);
+        generator.nextId();
+        clock.set(START - MAX_BACKWARD_MILLIS - 1);
+        assertThrows(SequenceException.class, generator::nextId);
+        //时钟恢复后继续发号
+        clock.set(START + 1);
+        assertEquals(START + 1, SnowflakeIdGenerator.getTimestamp(generator.nextId()));
+    }
+
+    @Test
+    public void concurrentIdsAreUnique() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(WORKER_ID);
+        int threads = 8;
+        int perThread = 50_000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                futures.add(executor.submit(() -> {
+                    long last = 0;
+                    for (int j = 0; j < perThread; ++j) {
+                        long id = generator.nextId();
+                        assertTrue(id > last, "ids of one thread must increase");
+                        assertTrue(ids.add(id), "duplicate id " + id);
+                        last = id;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    /**
+     * @params [generator 发号器]
+     * @desc 用完当前毫秒的序列号，返回最后一个id
+     **/
+    private static long exhaust(SnowflakeIdGenerator generator) {
+        Set<Long> ids = new HashSet<>();
+        long last = 0;
+        for (int i = 0; i < SEQUENCE_PER_MILLIS; ++i) {
+            last = generator.nextId();
+            assertEquals(START, SnowflakeIdGenerator.getTimestamp(last));
+            ids.add(last);
+        }
+        assertEquals(SEQUENCE_PER_MILLIS, ids.size());
+        return last;
+    }
+
+    /**
+     * @desc 手动设置的时钟
+     */
+    private static class FakeClock implements LongSupplier {
+        private volatile long now;
+
+        private FakeClock(long now) {
+            this.now = now;
+        }
+
+        private void set(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long getAsLong() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.tm.orm.sequence.snowflake;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/5 14:30
+ * @Desc workerId租约的测试，数据库使用H2内存库(MySQL模式)，Table通过spring容器初始化
+ */
+public class WorkerLeaseTest {
+    //续约周期为租约的1/3，即100毫秒
+    private static final long LEASE_MILLIS = 300;
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private AnnotationConfigApplicationContext context;
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        //Silence用反引号包裹列名，需要MySQL模式，并且未加引号的标识符保存为小写
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("sql/silence_worker.sql")).execute(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        context = new AnnotationConfigApplicationContext();
+        context.getBeanFactory().registerSingleton("dataSource", dataSource);
+        context.scan("com.tm.orm.silence.core");
+        context.refresh();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+        context.close();
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    public void acquiresDistinctWorkerIds() {
+        long now = System.currentTimeMillis();
+        assertEquals(0, newLease().current(now));
+        assertEquals(1, newLease().current(now));
+        assertTrue(expireTime(0) >= now + LEASE_MILLIS);
+        assertTrue(expireTime(1) >= now + LEASE_MILLIS);
+    }
+
+    @Test
+    public void releasedWorkerIdIsHeldUntilLastTimestamp() throws Exception {
+        WorkerLease first = newLease();
+        assertEquals(0, first.current(System.currentTimeMillis()));
+        long lastTimestamp = System.currentTimeMillis() + 200;
+        first.close(lastTimestamp);
+        //释放后不是立即可用，到期时间是发出的最大时间戳
+        assertEquals(lastTimestamp, expireTime(0));
+        assertEquals(1, newLease().current(System.currentTimeMillis()));
+        while (System.currentTimeMillis() <= lastTimestamp) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, newLease().current(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void closeWithoutTimestampUsesCurrentTime() {
+        WorkerLease lease = newLease();
+        lease.current(System.currentTimeMillis());
+        long beforeClose = System.currentTimeMillis();
+        lease.close();
+        long expire = expireTime(0);
+        assertTrue(expire >= beforeClose);
+        assertTrue(expire <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void closedLeaseRefusesToIssue() {
+        WorkerLease lease = newLease();
+        lease.current(System.currentTimeMillis());
+        lease.close();
+        assertThrows(SequenceException.class, () -> lease.current(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void renewsBeforeExpiry() throws Exception {
+        WorkerLease lease = newLease();
+        assertEquals(0, lease.current(System.currentTimeMillis()));
+        //超过租约时长后仍然有效，说明已经续约
+        Thread.sleep(LEASE_MILLIS * 3);
+        long now = System.currentTimeMillis();
+        assertEquals(0, lease.current(now));
+        assertTrue(expireTime(0) > now);
+    }
+
+    @Test
+    public void reacquiresWhenLeaseIsTaken() throws Exception {
+        WorkerLease lease = newLease();
+        assertEquals(0, lease.current(System.currentTimeMillis()));
+        //模拟租约被其他进程获取
+        jdbcTemplate.update("update silence_worker set owner = 'other' where worker_id = 0");
+        long deadline = System.currentTimeMillis() + LEASE_MILLIS * 5;
+        int workerId = 0;
+        while (workerId == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            workerId = lease.current(System.currentTimeMillis());
+        }
+        assertEquals(1, workerId);
+    }
+
+    @Test
+    public void nextOwnerIssuesLaterTimestamps() throws Exception {
+        SnowflakeIdGenerator first = new SnowflakeIdGenerator(LEASE_MILLIS, 10);
+        closeables.add(first);
+        long last = 0;
+        for (int i = 0; i < 10_000; ++i) {
+            last = first.nextId();
+        }
+        first.close();
+        long released = expireTime(SnowflakeIdGenerator.getWorkerId(last));
+        assertTrue(released >= SnowflakeIdGenerator.getTimestamp(last));
+        while (System.currentTimeMillis() <= released) {
+            Thread.sleep(1);
+        }
+        SnowflakeIdGenerator second = new SnowflakeIdGenerator(LEASE_MILLIS, 10);
+        closeables.add(second);
+        long id = second.nextId();
+        //接手同一个workerId，只能发出比原来的持有者更晚的时间戳
+        assertEquals(SnowflakeIdGenerator.getWorkerId(last), SnowflakeIdGenerator.getWorkerId(id));
+        assertTrue(SnowflakeIdGenerator.getTimestamp(id) > released);
+        assertTrue(id > last);
+    }
+
+    private WorkerLease newLease() {
+        WorkerLease lease = new WorkerLease(SnowflakeIdGenerator.MAX_WORKER_ID, LEASE_MILLIS);
+        closeables.add(lease);
+        return lease;
+    }
+
+    private long expireTime(int workerId) {
+        return jdbcTemplate.queryForObject("select expire_time from silence_worker where worker_id = ?", Long.class, workerId);
+    }
+}
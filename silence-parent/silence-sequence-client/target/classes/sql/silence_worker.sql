@@ -0,0 +1,8 @@
+-- 雪花算法workerId的租约表，每个workerId一行，expire_time之前只能由owner使用
+CREATE TABLE IF NOT EXISTS silence_worker
+(
+    worker_id   INT          NOT NULL,
+    owner       VARCHAR(128) NOT NULL,
+    expire_time BIGINT       NOT NULL,
+    PRIMARY KEY (worker_id)
+);
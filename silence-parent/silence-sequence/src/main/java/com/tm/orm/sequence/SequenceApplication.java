@@ -0,0 +1,16 @@
+package com.tm.orm.sequence;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 9:10
+ * @Desc 发号服务启动类
+ */
+@SpringBootApplication
+public class SequenceApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(SequenceApplication.class, args);
+    }
+}
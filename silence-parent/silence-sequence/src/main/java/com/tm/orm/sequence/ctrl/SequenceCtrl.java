@@ -1,6 +1,12 @@
 package com.tm.orm.sequence.ctrl;
 
+import com.tm.orm.sequence.exception.SequenceException;
+import com.tm.orm.sequence.segment.SegmentAllocator;
+import com.tm.orm.sequence.vo.GetIdReq;
+import com.tm.orm.sequence.vo.IdRange;
+import com.tm.orm.sequence.vo.SetIdReq;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -12,9 +18,30 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/silence/sequence")
 public class SequenceCtrl {
+    private final SegmentAllocator segmentAllocator;
+
+    public SequenceCtrl(SegmentAllocator segmentAllocator) {
+        this.segmentAllocator = segmentAllocator;
+    }
 
     @PostMapping("/getId")
-    public Integer getId() {
-        return null;
+    public Long getId(@RequestBody GetIdReq req) {
+        return segmentAllocator.nextId(req.getDb(), req.getTable());
+    }
+
+    @PostMapping("/getIds")
+    public IdRange getIds(@RequestBody GetIdReq req) {
+        if (null == req.getSize()) {
+            throw new SequenceException("size must not be null");
+        }
+        return new IdRange(segmentAllocator.nextRange(req.getDb(), req.getTable(), req.getSize()), req.getSize());
+    }
+
+    @PostMapping("/setId")
+    public void setId(@RequestBody SetIdReq req) {
+        if (null == req.getId()) {
+            throw new SequenceException("id must not be null");
+        }
+        segmentAllocator.setMaxId(req.getDb(), req.getTable(), req.getId());
     }
 }
@@ -0,0 +1,92 @@
+package com.tm.orm.sequence.segment;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 10:30
+ * @Desc 号段模式的发号器，每个(db, table)一个双号段缓冲，号段从数据库预留，id在内存中发放。
+ * 服务重启或者多节点部署时，没发完的号段会被丢弃，id全局唯一且递增，但不保证连续
+ */
+@Service
+public class SegmentAllocator {
+    private final SegmentDao segmentDao;
+    //每个(db, table)的号段缓冲
+    private final ConcurrentMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    //异步加载号段的线程池，线程都忙时由取号的线程自己加载
+    private final ThreadPoolExecutor executor;
+    //第一次取号时号段的长度，之后以数据库中的step为准
+    private final int defaultStep;
+
+    public SegmentAllocator(SegmentDao segmentDao, @Value("${silence.sequence.step:1000}") int defaultStep,
+                            @Value("${silence.sequence.prefetch-threads:4}") int prefetchThreads) {
+        this.segmentDao = segmentDao;
+        this.defaultStep = defaultStep;
+        this.executor = SegmentBuffer.newLoaderExecutor("silence-segment-", prefetchThreads);
+    }
+
+    /**
+     * @params [db 库名, table 表名]
+     * @desc 取下一个id
+     **/
+    public long nextId(String db, String table) {
+        return getBuffer(db, table).nextId();
+    }
+
+    /**
+     * @params [db 库名, table 表名, size 数量]
+     * @desc 取size个连续的id，返回第一个。size超过号段长度时直接从数据库预留size个id
+     **/
+    public long nextRange(String db, String table, int size) {
+        if (size <= 0) {
+            throw new SequenceException("size must be greater than 0");
+        }
+        long start = getBuffer(db, table).nextRange(size);
+        return start != Segment.EXHAUSTED ? start : segmentDao.allocate(db, table, size, defaultStep).next(size);
+    }
+
+    /**
+     * @params [db 库名, table 表名, maxId 已分配的最大id]
+     * @desc 重置已分配的最大id，之后发出的id从maxId + 1开始。
+     * 只会丢弃本节点内存中的号段，其他节点在用完手上的号段之前仍然按原来的号段发号
+     **/
+    public void setMaxId(String db, String table, long maxId) {
+        checkName(db, table);
+        segmentDao.setMaxId(db, table, maxId, defaultStep);
+        SegmentBuffer buffer = buffers.get(key(db, table));
+        if (null != buffer) {
+            buffer.reset();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private SegmentBuffer getBuffer(String db, String table) {
+        SegmentBuffer buffer = buffers.get(key(db, table));
+        if (null != buffer) {
+            return buffer;
+        }
+        checkName(db, table);
+        return buffers.computeIfAbsent(key(db, table), k -> new SegmentBuffer(() -> segmentDao.allocate(db, table, defaultStep), executor));
+    }
+
+    private static void checkName(String db, String table) {
+        if (null == db || db.isEmpty() || null == table || table.isEmpty()) {
+            throw new SequenceException("db and table must not be empty");
+        }
+    }
+
+    private static String key(String db, String table) {
+        return db + "." + table;
+    }
+}
@@ -0,0 +1,95 @@
+package com.tm.orm.sequence.segment;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/3 10:05
+ * @Desc 号段表的数据库操作，表结构见resources/sql/silence_sequence.sql
+ */
+@Repository
+public class SegmentDao {
+    private static final String UPDATE_MAX_ID = "UPDATE silence_sequence SET max_id = max_id + step WHERE db = ? AND table_name = ?";
+    private static final String UPDATE_MAX_ID_BY_SIZE = "UPDATE silence_sequence SET max_id = max_id + ? WHERE db = ? AND table_name = ?";
+    private static final String SELECT_MAX_ID = "SELECT max_id, step FROM silence_sequence WHERE db = ? AND table_name = ?";
+    private static final String INSERT = "INSERT INTO silence_sequence(db, table_name, max_id, step) VALUES (?, ?, ?, ?)";
+    private static final String SET_MAX_ID = "UPDATE silence_sequence SET max_id = ? WHERE db = ? AND table_name = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public SegmentDao(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @params [db 库名, table 表名, defaultStep 第一次取号时号段的长度]
+     * @desc 通过一条UPDATE把max_id增加step来预留一个号段，行锁保证多个节点拿到的号段不重叠，
+     * 同一事务内再查出增加后的max_id。没有记录时先插入一条max_id为0的记录
+     **/
+    public Segment allocate(String db, String table, int defaultStep) {
+        return allocate(db, table, null, defaultStep);
+    }
+
+    /**
+     * @params [db 库名, table 表名, size 预留的数量，为null时按step预留, defaultStep 没有记录时插入的号段长度]
+     * @desc 预留size个id，用于一次取号超过号段长度的情况
+     **/
+    public Segment allocate(String db, String table, Integer size, int defaultStep) {
+        Segment segment = tryAllocate(db, table, size);
+        if (null != segment) {
+            return segment;
+        }
+        insertIfAbsent(db, table, 0, defaultStep);
+        segment = tryAllocate(db, table, size);
+        if (null == segment) {
+            throw new SequenceException("failed to allocate segment of " + db + "." + table);
+        }
+        return segment;
+    }
+
+    /**
+     * @params [db 库名, table 表名, maxId 已分配的最大id, defaultStep 没有记录时插入的号段长度]
+     * @desc 设置已分配的最大id，下一个号段从maxId + 1开始，没有记录时插入一条
+     **/
+    public void setMaxId(String db, String table, long maxId, int defaultStep) {
+        if (jdbcTemplate.update(SET_MAX_ID, maxId, db, table) == 0 && !insertIfAbsent(db, table, maxId, defaultStep)) {
+            jdbcTemplate.update(SET_MAX_ID, maxId, db, table);
+        }
+    }
+
+    /**
+     * @params [db 库名, table 表名, maxId 初始的max_id, step 号段长度]
+     * @desc 插入一条记录，已经被其他节点插入时返回false
+     **/
+    private boolean insertIfAbsent(String db, String table, long maxId, int step) {
+        try {
+            jdbcTemplate.update(INSERT, db, table, maxId, step);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    private Segment tryAllocate(String db, String table, Integer size) {
+        return transactionTemplate.execute(status -> {
+            int rows = null == size ? jdbcTemplate.update(UPDATE_MAX_ID, db, table) : jdbcTemplate.update(UPDATE_MAX_ID_BY_SIZE, size, db, table);
+            if (rows == 0) {
+                return null;
+            }
+            List<Segment> segments = jdbcTemplate.query(SELECT_MAX_ID, (rs, i) -> {
+                long max = rs.getLong(1);
+                return new Segment(max - (null == size ? rs.getInt(2) : size) + 1, max);
+            }, db, table);
+            return segments.get(0);
+        });
+    }
+}
@@ -8,9 +8,12 @@ package com.tm.orm.sequence.vo;
 public class SetIdReq {
     private String db;
     private String table;
-    private Integer id;
+    private Long id;
 
-    public SetIdReq(String db, String table, Integer id) {
+    public SetIdReq() {
+    }
+
+    public SetIdReq(String db, String table, Long id) {
         this.db = db;
         this.table = table;
         this.id = id;
@@ -32,11 +35,11 @@ public class SetIdReq {
         this.table = table;
     }
 
-    public Integer getId() {
+    public Long getId() {
         return id;
     }
 
-    public void setId(Integer id) {
+    public void setId(Long id) {
         this.id = id;
     }
 }
@@ -0,0 +1,10 @@
+-- 号段表，每个(db, table_name)一行，max_id是已经分配出去的最大id，每次取号段时加上step
+CREATE TABLE IF NOT EXISTS silence_sequence
+(
+    db          VARCHAR(64) NOT NULL,
+    table_name  VARCHAR(64) NOT NULL,
+    max_id      BIGINT      NOT NULL DEFAULT 0,
+    step        INT         NOT NULL DEFAULT 1000,
+    update_time TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (db, table_name)
+);
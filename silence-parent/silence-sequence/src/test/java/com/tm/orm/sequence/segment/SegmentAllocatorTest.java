@@ -0,0 +1,339 @@
+package com.tm.orm.sequence.segment;
+
+import com.tm.orm.sequence.exception.SequenceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @Author yudm
+ * @Date 2021/9/5 10:00
+ * @Desc 号段模式的测试，数据库使用H2内存库(MySQL模式)
+ */
+public class SegmentAllocatorTest {
+    private static final String DB = "test_db";
+    private static final String TABLE = "t_user";
+    private static final int STEP = 100;
+    //与resources/sql/silence_sequence.sql一致，去掉了H2不需要的update_time
+    private static final String DDL = "CREATE TABLE silence_sequence(db VARCHAR(64) NOT NULL, table_name VARCHAR(64) NOT NULL, " +
+            "max_id BIGINT NOT NULL DEFAULT 0, step INT NOT NULL DEFAULT 1000, PRIMARY KEY (db, table_name))";
+
+    private DriverManagerDataSource dataSource;
+    private RecordingJdbcTemplate jdbcTemplate;
+    private CountingTransactionManager transactionManager;
+    private SegmentDao segmentDao;
+    private final List<SegmentAllocator> allocators = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        //每个测试一个独立的库，LOCK_TIMEOUT调大避免并发UPDATE同一行时等锁超时
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID()
+                + ";MODE=MySQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "");
+        jdbcTemplate = new RecordingJdbcTemplate(dataSource);
+        jdbcTemplate.execute(DDL);
+        transactionManager = new CountingTransactionManager(dataSource);
+        segmentDao = new SegmentDao(jdbcTemplate, transactionManager);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (SegmentAllocator allocator : allocators) {
+            allocator.destroy();
+        }
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    public void allocateInsertsMissingRow() {
+        Segment segment = segmentDao.allocate(DB, TABLE, STEP);
+        assertEquals(1, segment.next());
+        assertEquals(STEP, segment.getMax());
+        assertEquals(STEP, maxId());
+        //下一次从已有的记录上预留，按数据库中的step
+        jdbcTemplate.update("UPDATE silence_sequence SET step = 10 WHERE db = ? AND table_name = ?", DB, TABLE);
+        segment = segmentDao.allocate(DB, TABLE, STEP);
+        assertEquals(STEP + 1, segment.next());
+        assertEquals(STEP + 10, segment.getMax());
+    }
+
+    @Test
+    public void allocateUpdatesThenSelectsInOneTransaction() {
+        segmentDao.allocate(DB, TABLE, STEP);
+        int begins = transactionManager.begins.get();
+        int commits = transactionManager.commits.get();
+        jdbcTemplate.records.clear();
+
+        segmentDao.allocate(DB, TABLE, STEP);
+
+        assertEquals(begins + 1, transactionManager.begins.get());
+        assertEquals(commits + 1, transactionManager.commits.get());
+        assertEquals(2, jdbcTemplate.records.size());
+        Record update = jdbcTemplate.records.get(0);
+        Record select = jdbcTemplate.records.get(1);
+        assertTrue(update.sql.startsWith("UPDATE"));
+        assertTrue(select.sql.startsWith("SELECT"));
+        assertTrue(update.inTransaction);
+        assertTrue(select.inTransaction);
+        //同一个事务的同一个连接
+        assertNotNull(update.connectionHolder);
+        assertSame(update.connectionHolder, select.connectionHolder);
+    }
+
+    @Test
+    public void allocateByExplicitSize() {
+        segmentDao.allocate(DB, TABLE, STEP);
+        Segment segment = segmentDao.allocate(DB, TABLE, 5000, STEP);
+        assertEquals(STEP + 1, segment.next(5000));
+        assertEquals(STEP + 5000, segment.getMax());
+    }
+
+    @Test
+    public void concurrentAllocateNeverOverlaps() throws Exception {
+        segmentDao.allocate(DB, TABLE, STEP);
+        int threads = 8;
+        int rounds = 50;
+        List<Segment> segments = Collections.synchronizedList(new ArrayList<>());
+        runConcurrently(threads, () -> {
+            for (int i = 0; i < rounds; ++i) {
+                segments.add(segmentDao.allocate(DB, TABLE, STEP));
+            }
+        });
+        assertEquals(threads * rounds, segments.size());
+        List<Segment> sorted = new ArrayList<>(segments);
+        sorted.sort(Comparator.comparingLong(Segment::getMax));
+        long lastMax = STEP;
+        for (Segment segment : sorted) {
+            assertEquals(STEP, segment.getLength());
+            assertEquals(lastMax + STEP, segment.getMax());
+            lastMax = segment.getMax();
+        }
+    }
+
+    @Test
+    public void bufferPrefetchesAndSwitchesSegments() {
+        ScriptedLoader loader = new ScriptedLoader(10, 0);
+        SegmentBuffer buffer = new SegmentBuffer(loader, Runnable::run);
+        for (long i = 1; i <= 7; ++i) {
+            assertEquals(i, buffer.nextId());
+        }
+        assertEquals(1, loader.calls.get());
+        //剩余不足20%时预取下一个号段
+        assertEquals(8, buffer.nextId());
+        assertEquals(2, loader.calls.get());
+        assertEquals(9, buffer.nextId());
+        assertEquals(10, buffer.nextId());
+        //切换到预取的号段，不再加载
+        assertEquals(11, buffer.nextId());
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test
+    public void bufferFallsBackWhenPrefetchFails() {
+        //第2次加载(预取)失败
+        ScriptedLoader loader = new ScriptedLoader(10, 2);
+        SegmentBuffer buffer = new SegmentBuffer(loader, Runnable::run);
+        for (long i = 1; i <= 10; ++i) {
+            assertEquals(i, buffer.nextId());
+        }
+        assertEquals(2, loader.calls.get());
+        //预取失败，切换时同步加载
+        assertEquals(11, buffer.nextId());
+        assertEquals(3, loader.calls.get());
+    }
+
+    @Test
+    public void bufferThrowsWhenFallbackAlsoFails() {
+        //预取和同步加载都失败
+        ScriptedLoader loader = new ScriptedLoader(10, 2, 3);
+        SegmentBuffer buffer = new SegmentBuffer(loader, Runnable::run);
+        for (long i = 1; i <= 10; ++i) {
+            assertEquals(i, buffer.nextId());
+        }
+        assertThrows(SequenceException.class, buffer::nextId);
+        //下一次取号重新加载
+        assertEquals(11, buffer.nextId());
+        assertEquals(4, loader.calls.get());
+    }
+
+    @Test
+    public void concurrentNextIdIsUniqueAcrossSegmentSwitches() throws Exception {
+        //两个节点共用一张号段表
+        SegmentAllocator node1 = newAllocator(STEP);
+        SegmentAllocator node2 = newAllocator(STEP);
+        int threads = 16;
+        int perThread = 2000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger index = new AtomicInteger();
+        runConcurrently(threads, () -> {
+            SegmentAllocator allocator = index.getAndIncrement() % 2 == 0 ? node1 : node2;
+            long last = 0;
+            for (int i = 0; i < perThread; ++i) {
+                long id = allocator.nextId(DB, TABLE);
+                assertTrue(id > last, "ids of one thread must increase");
+                assertTrue(ids.add(id), "duplicate id " + id);
+                last = id;
+            }
+        });
+        assertEquals(threads * perThread, ids.size());
+        //号段切换了很多次，发出的id都在数据库已经预留的范围内
+        long maxId = maxId();
+        assertTrue(Collections.max(ids) <= maxId);
+        assertTrue(maxId >= threads * perThread);
+    }
+
+    @Test
+    public void nextRangeLargerThanStepGoesToDatabase() {
+        SegmentAllocator allocator = newAllocator(STEP);
+        assertEquals(1, allocator.nextId(DB, TABLE));
+        long start = allocator.nextRange(DB, TABLE, STEP * 3);
+        assertEquals(STEP + 1, start);
+        //本地号段不受影响
+        assertEquals(2, allocator.nextId(DB, TABLE));
+    }
+
+    @Test
+    public void setMaxIdDiscardsLocalSegments() {
+        SegmentAllocator allocator = newAllocator(STEP);
+        assertEquals(1, allocator.nextId(DB, TABLE));
+        allocator.setMaxId(DB, TABLE, 10_000);
+        assertEquals(10_001, allocator.nextId(DB, TABLE));
+    }
+
+    private long maxId() {
+        return jdbcTemplate.queryForObject("SELECT max_id FROM silence_sequence WHERE db = ? AND table_name = ?", Long.class, DB, TABLE);
+    }
+
+    private SegmentAllocator newAllocator(int step) {
+        SegmentAllocator allocator = new SegmentAllocator(segmentDao, step, 4);
+        allocators.add(allocator);
+        return allocator;
+    }
+
+    /**
+     * @params [threads 线程数, task 每个线程执行的任务]
+     * @desc 多个线程同时开始执行，任一线程的异常都会抛出
+     **/
+    private static void runConcurrently(int threads, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @desc 按顺序返回长度为length的号段，指定的第几次调用抛出异常，失败的调用不消耗号段
+     */
+    private static class ScriptedLoader implements Supplier<Segment> {
+        private final int length;
+        private final Set<Integer> failures = new HashSet<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private long max;
+
+        private ScriptedLoader(int length, Integer... failures) {
+            this.length = length;
+            this.failures.addAll(Arrays.asList(failures));
+        }
+
+        @Override
+        public synchronized Segment get() {
+            if (failures.contains(calls.incrementAndGet())) {
+                throw new SequenceException("load failed");
+            }
+            Segment segment = new Segment(max + 1, max + length);
+            max += length;
+            return segment;
+        }
+    }
+
+    /**
+     * @desc 记录执行的sql是否在事务中，以及使用的连接
+     */
+    private static class RecordingJdbcTemplate extends JdbcTemplate {
+        private final List<Record> records = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingJdbcTemplate(DriverManagerDataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            record(sql);
+            return super.update(sql, args);
+        }
+
+        @Override
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            record(sql);
+            return super.query(sql, rowMapper, args);
+        }
+
+        private void record(String sql) {
+            records.add(new Record(sql, TransactionSynchronizationManager.isActualTransactionActive(),
+                    TransactionSynchronizationManager.getResource(getDataSource())));
+        }
+    }
+
+    private static class Record {
+        private final String sql;
+        private final boolean inTransaction;
+        private final Object connectionHolder;
+
+        private Record(String sql, boolean inTransaction, Object connectionHolder) {
+            this.sql = sql;
+            this.inTransaction = inTransaction;
+            this.connectionHolder = connectionHolder;
+        }
+    }
+
+    /**
+     * @desc 统计开启和提交的事务数
+     */
+    private static class CountingTransactionManager extends DataSourceTransactionManager {
+        private final AtomicInteger begins = new AtomicInteger();
+        private final AtomicInteger commits = new AtomicInteger();
+
+        private CountingTransactionManager(DriverManagerDataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            begins.incrementAndGet();
+            super.doBegin(transaction, definition);
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            commits.incrementAndGet();
+            super.doCommit(status);
+        }
+    }
+}
@@ -1,10 +1,28 @@
 package com.tm.orm.starter.config;
 
 
+import com.tm.orm.silence.core.DataSourceRouter;
+import com.tm.orm.silence.core.IdGenerator;
+import com.tm.orm.silence.core.LagChecker;
+import com.tm.orm.silence.core.ShardRule;
+import com.tm.orm.silence.core.ShardingStrategy;
+import com.tm.orm.silence.core.SqlExecutor;
+import com.tm.orm.silence.exception.SqlException;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * @Author yudm
  * @Date 2021/1/27 11:25
@@ -14,5 +32,125 @@ import org.springframework.context.annotation.Configuration;
 @EnableConfigurationProperties(SilenceProperty.class)
 @ComponentScan({"com.tm.orm.silence.core"})
 public class SilenceAutoConfig {
+    @Resource
+    private SilenceProperty silenceProperty;
+    @Resource
+    private SqlExecutor sqlExecutor;
+    @Resource
+    private DataSource dataSource;
+    //主键生成器，只用于主键标注了@GeneratedId的实体
+    @Autowired(required = false)
+    private IdGenerator idGenerator;
+    //框架创建的连接池
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    /**
+     * @desc 将配置应用到sql执行器
+     **/
+    @PostConstruct
+    public void init() {
+        sqlExecutor.setFetchSize(silenceProperty.getFetchSize());
+        sqlExecutor.setBatchSize(silenceProperty.getBatchSize());
+        sqlExecutor.setMultiValues(silenceProperty.isMultiValues());
+        sqlExecutor.setStatementCacheSize(silenceProperty.getStatementCacheSize());
+        sqlExecutor.setCountCacheSeconds(silenceProperty.getCountCacheSeconds());
+        sqlExecutor.setPageThreads(silenceProperty.getPageThreads());
+        sqlExecutor.setAsyncThreads(silenceProperty.getAsyncThreads());
+        sqlExecutor.setVirtualThreads(silenceProperty.isVirtualThreads());
+        sqlExecutor.setQueryCacheBytes(silenceProperty.getQueryCacheBytes());
+        sqlExecutor.setQueryCacheSeconds(silenceProperty.getQueryCacheSeconds());
+        sqlExecutor.setIdGenerator(idGenerator);
+        initRouter();
+        initDatasources();
+        initShards();
+    }
+
+    /**
+     * @desc 关闭框架创建的连接池
+     **/
+    @PreDestroy
+    public void destroy() {
+        for (HikariDataSource pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * @desc 配置了从库时创建读写分离的数据源路由
+     **/
+    private void initRouter() {
+        if (silenceProperty.getReplicas().isEmpty()) {
+            return;
+        }
+        List<DataSource> replicas = new ArrayList<>();
+        int index = 0;
+        for (SilenceProperty.JdbcConfig replica : silenceProperty.getReplicas()) {
+            replicas.add(createPool("silence-replica-" + ++index, replica, true));
+        }
+        DataSourceRouter router = new DataSourceRouter(dataSource, replicas, silenceProperty.getLoadBalance());
+        if (silenceProperty.getMaxReplicaLagMillis() > 0) {
+            router.setLagChecker(LagChecker.mysql(), silenceProperty.getMaxReplicaLagMillis(), silenceProperty.getReplicaCheckMillis());
+        }
+        sqlExecutor.setRouter(router);
+    }
+
+    /**
+     * @desc 创建命名的数据源及按包名的路由
+     **/
+    private void initDatasources() {
+        for (Map.Entry<String, SilenceProperty.JdbcConfig> entry : silenceProperty.getDatasources().entrySet()) {
+            sqlExecutor.addRouter(entry.getKey(), new DataSourceRouter(createPool("silence-" + entry.getKey(), entry.getValue(), false)));
+        }
+        sqlExecutor.setPackageRoutes(silenceProperty.getPackages());
+    }
+
+    /**
+     * @desc 创建实体类的分片规则
+     **/
+    private void initShards() {
+        for (Map.Entry<String, SilenceProperty.ShardConfig> entry : silenceProperty.getShards().entrySet()) {
+            SilenceProperty.ShardConfig shard = entry.getValue();
+            ShardingStrategy strategy;
+            switch (shard.getStrategy().toLowerCase()) {
+                case "hash":
+                    strategy = ShardingStrategy.hash(shard.getSize());
+                    break;
+                case "range":
+                    strategy = ShardingStrategy.range(shard.getBounds().stream().mapToLong(Long::longValue).toArray());
+                    break;
+                case "month":
+                    strategy = ShardingStrategy.month();
+                    break;
+                default:
+                    throw new SqlException("unknown sharding strategy: " + shard.getStrategy());
+            }
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(entry.getKey(), false, Thread.currentThread().getContextClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new SqlException(e);
+            }
+            sqlExecutor.addShardRule(new ShardRule(clazz, strategy, shard.getDatasources().toArray(new String[0])));
+        }
+    }
 
+    /**
+     * @params [name 连接池名称, jdbc 连接配置, readOnly 是否只读]
+     * @desc 创建连接池，应用关闭时关闭
+     **/
+    private HikariDataSource createPool(String name, SilenceProperty.JdbcConfig jdbc, boolean readOnly) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl(jdbc.getUrl());
+        config.setUsername(jdbc.getUsername());
+        config.setPassword(jdbc.getPassword());
+        if (null != jdbc.getDriverClassName()) {
+            config.setDriverClassName(jdbc.getDriverClassName());
+        }
+        config.setMaximumPoolSize(jdbc.getMaximumPoolSize());
+        config.setReadOnly(readOnly);
+        HikariDataSource pool = new HikariDataSource(config);
+        pools.add(pool);
+        return pool;
+    }
 }
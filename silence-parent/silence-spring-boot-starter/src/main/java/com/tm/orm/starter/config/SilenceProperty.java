@@ -1,7 +1,13 @@
 package com.tm.orm.starter.config;
 
+import com.tm.orm.silence.core.LoadBalance;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * @Author yudm
  * @Date 2021/6/1 14:22
@@ -10,6 +16,40 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "silence")
 public class SilenceProperty {
     private boolean enable;
+    //流式查询每次从数据库获取的行数，0表示自动：mysql使用Integer.MIN_VALUE逐行流式读取，其他数据库每次1000行
+    private int fetchSize;
+    //批量插入时每批的行数
+    private int batchSize = 1000;
+    //批量插入是否拼接成 values (...),(...) 的多行语句，连接url中已开启rewriteBatchedStatements时该配置不生效
+    private boolean multiValues;
+    //事务中每个连接上最多缓存的PreparedStatement数量，0表示不缓存
+    private int statementCacheSize = 64;
+    //分页查询使用CountMode.CACHED时总数的缓存时间，秒
+    private int countCacheSeconds = 60;
+    //并行分页执行count查询的线程数
+    private int pageThreads = 8;
+    //异步执行的线程数，0表示与连接池的最大连接数相同
+    private int asyncThreads;
+    //异步执行是否使用虚拟线程，需要java21+
+    private boolean virtualThreads;
+    //查询结果缓存的最大字节数，0表示关闭
+    private long queryCacheBytes = 64L << 20;
+    //查询结果缓存的缓存时间，秒
+    private int queryCacheSeconds = 60;
+    //从库，配置后事务外的读操作分配到从库
+    private List<JdbcConfig> replicas = new ArrayList<>();
+    //读操作在从库之间的分配方式
+    private LoadBalance loadBalance = LoadBalance.ROUND_ROBIN;
+    //允许的从库最大复制延迟，毫秒，超过时暂停使用该从库，0表示不检查
+    private long maxReplicaLagMillis;
+    //检查从库复制延迟的间隔，毫秒
+    private long replicaCheckMillis = 1000;
+    //其他数据源，名称->连接配置，通过@UseDataSource或packages使用
+    private Map<String, JdbcConfig> datasources = new LinkedHashMap<>();
+    //包名前缀->数据源名称，包名含有点号，需要写成 silence.packages[com.xx.order]=order
+    private Map<String, String> packages = new LinkedHashMap<>();
+    //分片规则，实体类的全限定名->分片配置，需要写成 silence.shards[com.xx.Order].size=16
+    private Map<String, ShardConfig> shards = new LinkedHashMap<>();
 
     public boolean isEnable() {
         return enable;
@@ -18,4 +58,238 @@ public class SilenceProperty {
     public void setEnable(boolean enable) {
         this.enable = enable;
     }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isMultiValues() {
+        return multiValues;
+    }
+
+    public void setMultiValues(boolean multiValues) {
+        this.multiValues = multiValues;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getCountCacheSeconds() {
+        return countCacheSeconds;
+    }
+
+    public void setCountCacheSeconds(int countCacheSeconds) {
+        this.countCacheSeconds = countCacheSeconds;
+    }
+
+    public int getPageThreads() {
+        return pageThreads;
+    }
+
+    public void setPageThreads(int pageThreads) {
+        this.pageThreads = pageThreads;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public long getQueryCacheBytes() {
+        return queryCacheBytes;
+    }
+
+    public void setQueryCacheBytes(long queryCacheBytes) {
+        this.queryCacheBytes = queryCacheBytes;
+    }
+
+    public int getQueryCacheSeconds() {
+        return queryCacheSeconds;
+    }
+
+    public void setQueryCacheSeconds(int queryCacheSeconds) {
+        this.queryCacheSeconds = queryCacheSeconds;
+    }
+
+    public List<JdbcConfig> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(List<JdbcConfig> replicas) {
+        this.replicas = replicas;
+    }
+
+    public LoadBalance getLoadBalance() {
+        return loadBalance;
+    }
+
+    public void setLoadBalance(LoadBalance loadBalance) {
+        this.loadBalance = loadBalance;
+    }
+
+    public long getMaxReplicaLagMillis() {
+        return maxReplicaLagMillis;
+    }
+
+    public void setMaxReplicaLagMillis(long maxReplicaLagMillis) {
+        this.maxReplicaLagMillis = maxReplicaLagMillis;
+    }
+
+    public long getReplicaCheckMillis() {
+        return replicaCheckMillis;
+    }
+
+    public void setReplicaCheckMillis(long replicaCheckMillis) {
+        this.replicaCheckMillis = replicaCheckMillis;
+    }
+
+    public Map<String, JdbcConfig> getDatasources() {
+        return datasources;
+    }
+
+    public void setDatasources(Map<String, JdbcConfig> datasources) {
+        this.datasources = datasources;
+    }
+
+    public Map<String, String> getPackages() {
+        return packages;
+    }
+
+    public void setPackages(Map<String, String> packages) {
+        this.packages = packages;
+    }
+
+    public Map<String, ShardConfig> getShards() {
+        return shards;
+    }
+
+    public void setShards(Map<String, ShardConfig> shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * @desc 从库或其他数据源的连接配置
+     */
+    public static class JdbcConfig {
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        //连接池的最大连接数
+        private int maximumPoolSize = 10;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public String getDriverClassName() {
+            return driverClassName;
+        }
+
+        public void setDriverClassName(String driverClassName) {
+            this.driverClassName = driverClassName;
+        }
+
+        public int getMaximumPoolSize() {
+            return maximumPoolSize;
+        }
+
+        public void setMaximumPoolSize(int maximumPoolSize) {
+            this.maximumPoolSize = maximumPoolSize;
+        }
+    }
+
+    /**
+     * @desc 实体类的分片配置
+     */
+    public static class ShardConfig {
+        //分片策略：hash、range、month
+        private String strategy = "hash";
+        //hash策略的分片数
+        private int size;
+        //range策略递增的分界值
+        private List<Long> bounds = new ArrayList<>();
+        //分片所在的数据源名称，分片按顺序连续地分配到各个数据源上
+        private List<String> datasources = new ArrayList<>();
+
+        public String getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(String strategy) {
+            this.strategy = strategy;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public List<Long> getBounds() {
+            return bounds;
+        }
+
+        public void setBounds(List<Long> bounds) {
+            this.bounds = bounds;
+        }
+
+        public List<String> getDatasources() {
+            return datasources;
+        }
+
+        public void setDatasources(List<String> datasources) {
+            this.datasources = datasources;
+        }
+    }
 }
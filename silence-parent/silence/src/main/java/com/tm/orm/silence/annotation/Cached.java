@@ -0,0 +1,21 @@
+package com.tm.orm.silence.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author yudm
+ * @date 2021/8/29 10:00
+ * @desc 标注在实体类上，开启selectById的二级缓存。适合变化很少、读取频繁的字典表、配置表。
+ * 通过Table对该类的insert、updateById、deleteById及其批量操作会使对应主键的缓存失效，
+ * 直接执行sql修改该表时需要调用Table.evictCache
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+    //最多缓存的对象数量，超出时淘汰最近最少使用的
+    long maxSize() default 1000;
+
+    //写入缓存后的有效时间，秒
+    long ttlSeconds() default 300;
+}
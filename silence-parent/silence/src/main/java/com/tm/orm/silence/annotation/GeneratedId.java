@@ -0,0 +1,15 @@
+package com.tm.orm.silence.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author yudm
+ * @date 2021/9/3 14:05
+ * @desc 标注在实体类的主键字段上，插入时主键为空则由SqlExecutor配置的IdGenerator分配主键。
+ * 没有标注的实体仍然由数据库生成主键。主键类型只能是Long、Integer或String
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface GeneratedId {
+}
@@ -0,0 +1,14 @@
+package com.tm.orm.silence.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author yudm
+ * @date 2021/9/2 9:30
+ * @desc 标注在实体类的字段上，作为分库分表的分片键，配合ShardRule使用。写入时分片键不能为null
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardKey {
+}
@@ -0,0 +1,16 @@
+package com.tm.orm.silence.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author yudm
+ * @date 2021/9/1 10:00
+ * @desc 标注在调用Table的类上，该类中的操作使用指定名称的数据源，优先于按包名配置的路由
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface UseDataSource {
+    //数据源名称，对应silence.datasources中配置的名称
+    String value();
+}
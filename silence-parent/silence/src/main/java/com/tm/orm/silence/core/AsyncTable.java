@@ -0,0 +1,187 @@
+package com.tm.orm.silence.core;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * @author yudm
+ * @date 2021/8/27 11:05
+ * @desc Table的异步版本，通过Table.async()获取。每个操作提交到SqlExecutor的异步线程池中执行，立即返回CompletableFuture。
+ * 线程池的线程数默认与连接池的最大连接数相同，饱和时调用线程等待线程池有空位，起到背压的作用，任务不会在调用线程中执行。
+ * 注意异步操作在其他线程中执行，不会加入调用者当前的事务
+ */
+public class AsyncTable {
+    static final AsyncTable INSTANCE = new AsyncTable();
+
+    private AsyncTable() {
+    }
+
+    /**
+     * @params [entity 实体对象]
+     * @desc 单条插入，为null的字段会被过滤掉
+     */
+    public CompletableFuture<Integer> insert(Object entity) {
+        return submit(() -> Table.insert(entity));
+    }
+
+    /**
+     * @params [entity 实体对象]
+     * @desc 单条插入，并回显主键的值，为null的字段会被过滤掉
+     */
+    public CompletableFuture<Integer> insertAndEchoId(Object entity) {
+        return submit(() -> Table.insertAndEchoId(entity));
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 批量插入，为null的字段会被过滤掉
+     */
+    public CompletableFuture<Integer> insertList(List<?> entities) {
+        return submit(() -> Table.insertList(entities));
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 批量插入，并回显主键的值，为null的字段会被过滤掉
+     */
+    public CompletableFuture<Integer> insertListAndEchoId(List<?> entities) {
+        return submit(() -> Table.insertListAndEchoId(entities));
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 根据主键批量更新，为null的字段会被过滤掉
+     */
+    public CompletableFuture<Integer> updateListById(List<?> entities) {
+        return submit(() -> Table.updateListById(entities));
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 根据主键批量删除
+     */
+    public CompletableFuture<Integer> deleteListById(List<?> entities) {
+        return submit(() -> Table.deleteListById(entities));
+    }
+
+    /**
+     * @params [entity 实体对象]
+     * @desc 根据主键更新
+     */
+    public CompletableFuture<Integer> updateById(Object entity) {
+        return submit(() -> Table.updateById(entity));
+    }
+
+    /**
+     * @params [entity 实体对象]
+     * @desc 根据主键删除
+     */
+    public CompletableFuture<Integer> deleteById(Object entity) {
+        return submit(() -> Table.deleteById(entity));
+    }
+
+    /**
+     * @params [sql 简单sql语句, data 占位符对应的参数列表]
+     * @desc 通过简单sql进行增删改
+     */
+    public CompletableFuture<Integer> simpleUpdate(String sql, Object... data) {
+        return submit(() -> Table.simpleUpdate(sql, data));
+    }
+
+    /**
+     * @params [sql 复杂sql语句，含有动态语句, data 参数]
+     * @desc 通过带有动态语句的sql进行增删改
+     */
+    public CompletableFuture<Integer> update(String sql, Object data) {
+        return submit(() -> Table.update(sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, id 主键]
+     * @desc 通过主键查询
+     */
+    public <T> CompletableFuture<T> selectById(Class<T> clazz, Object id) {
+        return submit(() -> Table.selectById(clazz, id));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码]
+     * @desc 查询该表中所有数据
+     */
+    public <T> CompletableFuture<List<T>> selectAll(Class<T> clazz) {
+        return submit(() -> Table.selectAll(clazz));
+    }
+
+    /**
+     * @params [clazz 实体类字节码]
+     * @desc 查询该表总数
+     */
+    public CompletableFuture<Integer> selectCount(Class<?> clazz) {
+        return submit(() -> Table.selectCount(clazz));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, sql 简单查询sql语句，可含有占位符，但不能含有动态语句, data 占位符对应的参数列表]
+     * @desc 通过简单sql语句查询单个
+     */
+    public <T> CompletableFuture<T> simpleSelectOne(Class<T> clazz, String sql, Object... data) {
+        return submit(() -> Table.simpleSelectOne(clazz, sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, sql 简单查询sql语句，可含有占位符，但不能含有动态语句, data 占位符对应的参数列表]
+     * @desc 通过简单sql语句查询多个
+     */
+    public <T> CompletableFuture<List<T>> simpleSelectList(Class<T> clazz, String sql, Object data) {
+        return submit(() -> Table.simpleSelectList(clazz, sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, page 分页对象, sql 简单查询sql语句, data 占位符对应的参数列表]
+     * @desc 通过简单sql语句分页查询
+     */
+    public <T> CompletableFuture<Page<T>> simpleSelectPage(Class<T> clazz, Page<T> page, String sql, Object... data) {
+        return submit(() -> Table.simpleSelectPage(clazz, page, sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 通过带有动态语句的sql查询单个
+     */
+    public <T> CompletableFuture<T> selectOne(Class<T> clazz, String sql, Object data) {
+        return submit(() -> Table.selectOne(clazz, sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 通过带有动态语句的sql查询多个
+     */
+    public <T> CompletableFuture<List<T>> selectList(Class<T> clazz, String sql, Object data) {
+        return submit(() -> Table.selectList(clazz, sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, page 分页对象, sql 复杂查询sql语句，含有动态语句, data 占位符对应的参数列表]
+     * @desc 通过带有动态语句的sql分页查询
+     */
+    public <T> CompletableFuture<Page<T>> selectPage(Class<T> clazz, Page<T> page, String sql, Object data) {
+        return submit(() -> Table.selectPage(clazz, page, sql, data));
+    }
+
+    /**
+     * @params [supplier 具体的操作]
+     * @desc 提交到异步线程池执行，数据源按调用者确定，操作中抛出的异常通过返回的CompletableFuture传递，
+     * 线程池拒绝任务(已关闭或者等待时被中断)时返回以RejectedExecutionException结束的CompletableFuture
+     **/
+    private <R> CompletableFuture<R> submit(Supplier<R> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(Table.bindRouter(supplier), Table.getAsyncExecutor());
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+}
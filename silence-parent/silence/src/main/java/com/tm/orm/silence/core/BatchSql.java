@@ -0,0 +1,45 @@
+package com.tm.orm.silence.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author yudm
+ * @date 2021/8/25 14:32
+ * @desc 构建完成的批量sql，所有行共用一条sql和参数类型，每行一个参数列表，不可变
+ */
+public final class BatchSql {
+    //单行的sql
+    private final String sql;
+    //每行的参数列表
+    private final List<List<Object>> rows;
+    //参数声明的类型，每行相同
+    private final List<Class<?>> paramTypes;
+
+    public BatchSql(String sql, List<List<Object>> rows, List<Class<?>> paramTypes) {
+        this.sql = sql;
+        this.rows = Collections.unmodifiableList(new ArrayList<>(rows));
+        this.paramTypes = Collections.unmodifiableList(new ArrayList<>(paramTypes));
+    }
+
+    /**
+     * @params [sql 新的sql语句]
+     * @desc 替换sql，参数不变，用于分片时改写表名
+     **/
+    public BatchSql withSql(String sql) {
+        return new BatchSql(sql, rows, paramTypes);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<List<Object>> getRows() {
+        return rows;
+    }
+
+    public List<Class<?>> getParamTypes() {
+        return paramTypes;
+    }
+}
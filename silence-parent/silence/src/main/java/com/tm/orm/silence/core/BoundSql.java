@@ -0,0 +1,104 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.exception.SqlException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author yudm
+ * @date 2021/8/25 14:10
+ * @desc 构建完成的sql及其参数，不可变，可以在线程间传递、缓存和重复执行。
+ * paramTypes是每个参数声明的类型，用于参数为null时调用setNull，未知时为null
+ */
+public final class BoundSql {
+    //最终执行的sql
+    private final String sql;
+    //占位符对应的参数
+    private final List<Object> params;
+    //参数声明的类型
+    private final List<Class<?>> paramTypes;
+
+    public BoundSql(String sql, List<Object> params, List<Class<?>> paramTypes) {
+        if (params.size() != paramTypes.size()) {
+            throw new SqlException("the size of params must be equal to paramTypes");
+        }
+        this.sql = sql;
+        this.params = Collections.unmodifiableList(new ArrayList<>(params));
+        this.paramTypes = Collections.unmodifiableList(new ArrayList<>(paramTypes));
+    }
+
+    /**
+     * @params [sql sql语句, params 参数]
+     * @desc 创建参数类型未知的BoundSql
+     **/
+    public static BoundSql of(String sql, Object... params) {
+        return of(sql, Arrays.asList(params));
+    }
+
+    /**
+     * @params [sql sql语句, params 参数]
+     * @desc 创建参数类型未知的BoundSql
+     **/
+    public static BoundSql of(String sql, List<Object> params) {
+        return new BoundSql(sql, params, Collections.nCopies(params.size(), null));
+    }
+
+    /**
+     * @params [sql 新的sql语句, extraParams 追加在原参数后面的参数]
+     * @desc 基于当前的参数创建新的BoundSql，用于分页、count等包装原sql的场景
+     **/
+    public BoundSql wrap(String sql, Object... extraParams) {
+        List<Object> newParams = new ArrayList<>(params.size() + extraParams.length);
+        newParams.addAll(params);
+        newParams.addAll(Arrays.asList(extraParams));
+        List<Class<?>> newTypes = new ArrayList<>(newParams.size());
+        newTypes.addAll(paramTypes);
+        newTypes.addAll(Collections.nCopies(extraParams.length, null));
+        return new BoundSql(sql, newParams, newTypes);
+    }
+
+    /**
+     * @params [sql 新的sql语句]
+     * @desc 替换sql，参数不变，用于分片时改写表名
+     **/
+    public BoundSql withSql(String sql) {
+        return new BoundSql(sql, params, paramTypes);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParams() {
+        return params;
+    }
+
+    public List<Class<?>> getParamTypes() {
+        return paramTypes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BoundSql)) {
+            return false;
+        }
+        BoundSql that = (BoundSql) o;
+        return sql.equals(that.sql) && params.equals(that.params);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * sql.hashCode() + params.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + params;
+    }
+}
@@ -0,0 +1,186 @@
+package com.tm.orm.silence.core;
+
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.JexlArithmetic;
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.tm.orm.silence.util.ReflectUtil.getValueFromMap;
+import static com.tm.orm.silence.util.StringUtil.*;
+
+/**
+ * @author yudm
+ * @date 2021/8/4 15:40
+ * @desc 编译后的if条件表达式。形如 x != null、x != ''、x > n 并由&&、||连接的常见条件直接求值，其余的交给jexl
+ */
+class Condition {
+    //简单比较：变量 运算符 常量
+    private static final Pattern SIMPLE = Pattern.compile("^\\s*([A-Za-z_$][\\w.$]*)\\s*(==|!=|>=|<=|>|<)\\s*(null|true|false|\"[^\"]*\"|-?\\d+(?:\\.\\d+)?)\\s*$");
+    //条件表达式中的变量名
+    private final String[] names;
+    //简单条件按||分组，每组内按&&连接，为null时说明不是简单条件
+    private final Compare[][] groups;
+    //非简单条件的jexl表达式
+    private final Expression expression;
+    //与jexl一致的比较运算
+    private final JexlArithmetic arithmetic;
+
+    private Condition(String[] names, Compare[][] groups, Expression expression, JexlArithmetic arithmetic) {
+        this.names = names;
+        this.groups = groups;
+        this.expression = expression;
+        this.arithmetic = arithmetic;
+    }
+
+    /**
+     * @params [condition 条件表达式, jexlEngine jexl引擎]
+     * @desc 编译条件表达式，能直接求值的不再创建jexl表达式
+     **/
+    static Condition compile(String condition, JexlEngine jexlEngine) {
+        //条件表达式中的变量名
+        List<String> names = new ArrayList<>();
+        for (String k : split(condition, LOGIC_LABEL)) {
+            names.add(split(k, OPERATOR)[0].trim());
+        }
+        Compare[][] groups = parseSimple(condition);
+        Expression expression = null == groups ? jexlEngine.createExpression(condition) : null;
+        return new Condition(names.toArray(new String[0]), groups, expression, jexlEngine.getArithmetic());
+    }
+
+    /**
+     * @desc 条件表达式中的变量名
+     **/
+    String[] getNames() {
+        return names;
+    }
+
+    /**
+     * @params [param map参数]
+     * @desc 判断条件是否成立
+     **/
+    boolean test(Map<String, Object> param) {
+        if (null == groups) {
+            return Boolean.TRUE.equals(expression.evaluate(new ParamContext(param)));
+        }
+        for (Compare[] group : groups) {
+            boolean result = true;
+            for (Compare compare : group) {
+                if (!compare.test(getValueFromMap(param, compare.name), arithmetic)) {
+                    result = false;
+                    break;
+                }
+            }
+            if (result) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @params [condition 条件表达式]
+     * @desc 解析简单条件，&&优先级高于||，含有括号、函数等无法解析时返回null
+     **/
+    private static Compare[][] parseSimple(String condition) {
+        String[] ors = condition.split("\\|\\|", -1);
+        Compare[][] groups = new Compare[ors.length][];
+        for (int i = 0; i < ors.length; ++i) {
+            String[] ands = ors[i].split("&&", -1);
+            groups[i] = new Compare[ands.length];
+            for (int j = 0; j < ands.length; ++j) {
+                Matcher matcher = SIMPLE.matcher(ands[j]);
+                if (!matcher.matches()) {
+                    return null;
+                }
+                groups[i][j] = new Compare(matcher.group(1), matcher.group(2), toLiteral(matcher.group(3)));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * @params [s 常量字符串]
+     * @desc 将常量解析为与jexl字面量相同类型的值
+     **/
+    private static Object toLiteral(String s) {
+        if ("null".equals(s)) {
+            return null;
+        } else if ("true".equals(s) || "false".equals(s)) {
+            return Boolean.valueOf(s);
+        } else if (s.startsWith("\"")) {
+            return s.substring(1, s.length() - 1);
+        } else if (s.contains(".")) {
+            return Double.valueOf(s);
+        }
+        long l = Long.parseLong(s);
+        return l == (int) l ? (Object) (int) l : (Object) l;
+    }
+
+    /**
+     * @desc 一个简单比较
+     */
+    private static class Compare {
+        private final String name;
+        private final String operator;
+        private final Object literal;
+
+        private Compare(String name, String operator, Object literal) {
+            this.name = name;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        private boolean test(Object value, JexlArithmetic arithmetic) {
+            switch (operator) {
+                case "==":
+                    return arithmetic.equals(value, literal);
+                case "!=":
+                    return !arithmetic.equals(value, literal);
+                case ">":
+                    return arithmetic.greaterThan(value, literal);
+                case "<":
+                    return arithmetic.lessThan(value, literal);
+                case ">=":
+                    return arithmetic.greaterThanOrEqual(value, literal);
+                default:
+                    return arithmetic.lessThanOrEqual(value, literal);
+            }
+        }
+    }
+
+    /**
+     * @desc 直接从参数中取值的jexl上下文，不必为每次求值复制一份参数
+     */
+    private static class ParamContext implements JexlContext {
+        private final Map<String, Object> param;
+
+        private ParamContext(Map<String, Object> param) {
+            this.param = param;
+        }
+
+        @Override
+        public Object get(String name) {
+            return has(name) ? getValueFromMap(param, name) : null;
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            param.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            if (param.containsKey(name)) {
+                return true;
+            }
+            int index = name.indexOf('.');
+            return index > 0 && param.get(name.substring(0, index)) instanceof Map<?, ?>;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.tm.orm.silence.core;
+
+/**
+ * @author yudm
+ * @date 2021/8/23 9:40
+ * @desc 分页查询总数的方式
+ */
+public enum CountMode {
+    //每次都执行count查询
+    EXACT,
+    //执行count查询，结果按sql和参数缓存一段时间，适合数据变化不频繁、翻页频繁的场景
+    CACHED,
+    //通过explain获取数据库估算的行数，不扫描数据，不支持explain时退化为EXACT
+    ESTIMATED
+}
@@ -0,0 +1,171 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.exception.SqlException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author yudm
+ * @date 2021/8/31 9:40
+ * @desc 读写分离的数据源路由。写操作和事务中的读操作使用主库，其他读操作按LoadBalance分配到从库。
+ * 设置了LagChecker时定时检查每个从库的复制延迟，延迟过大或检查失败的从库暂停使用，没有可用的从库时读主库
+ */
+public class DataSourceRouter {
+    //主库
+    private final DataSource primary;
+    //从库
+    private final Replica[] replicas;
+    //从库的分配方式
+    private final LoadBalance loadBalance;
+    //轮询的计数
+    private final AtomicInteger next = new AtomicInteger();
+    //定时检查复制延迟的线程
+    private volatile ScheduledExecutorService checker;
+
+    /**
+     * @params [primary 主库]
+     * @desc 只有主库，所有操作都使用主库
+     **/
+    public DataSourceRouter(DataSource primary) {
+        this(primary, null, LoadBalance.ROUND_ROBIN);
+    }
+
+    /**
+     * @params [primary 主库, replicas 从库, loadBalance 从库的分配方式]
+     * @desc 读写分离
+     **/
+    public DataSourceRouter(DataSource primary, List<DataSource> replicas, LoadBalance loadBalance) {
+        if (null == primary) {
+            throw new SqlException("primary datasource can not be null");
+        }
+        this.primary = primary;
+        this.loadBalance = null == loadBalance ? LoadBalance.ROUND_ROBIN : loadBalance;
+        int size = null == replicas ? 0 : replicas.size();
+        this.replicas = new Replica[size];
+        for (int i = 0; i < size; ++i) {
+            this.replicas[i] = new Replica(replicas.get(i));
+        }
+    }
+
+    /**
+     * @params [lagChecker 复制延迟的检查方式, maxLagMillis 允许的最大延迟，毫秒, intervalMillis 检查间隔，毫秒]
+     * @desc 开始定时检查从库的复制延迟
+     **/
+    public synchronized void setLagChecker(LagChecker lagChecker, long maxLagMillis, long intervalMillis) {
+        close();
+        if (null == lagChecker || 0 == replicas.length) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "silence-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            for (Replica replica : replicas) {
+                try {
+                    replica.available = lagChecker.getLagMillis(replica.dataSource) <= maxLagMillis;
+                } catch (Exception e) {
+                    replica.available = false;
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        this.checker = executor;
+    }
+
+    /**
+     * @params [read 是否是读操作]
+     * @desc 获取本次操作使用的数据源，用完后必须调用release
+     **/
+    public DataSource acquire(boolean read) {
+        if (!read || 0 == replicas.length || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return primary;
+        }
+        Replica replica = LoadBalance.LEAST_LOADED == loadBalance ? leastLoaded() : roundRobin();
+        if (null == replica) {
+            return primary;
+        }
+        replica.active.incrementAndGet();
+        return replica.dataSource;
+    }
+
+    /**
+     * @params [dataSource acquire获取的数据源]
+     * @desc 操作完成，更新从库正在执行的请求数
+     **/
+    public void release(DataSource dataSource) {
+        if (primary == dataSource) {
+            return;
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource == dataSource) {
+                replica.active.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @desc 停止检查复制延迟
+     **/
+    public synchronized void close() {
+        if (null != checker) {
+            checker.shutdownNow();
+            checker = null;
+        }
+    }
+
+    /**
+     * @desc 从上次的位置开始找到第一个可用的从库
+     **/
+    private Replica roundRobin() {
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.length; ++i) {
+            Replica replica = replicas[Math.floorMod(start + i, replicas.length)];
+            if (replica.available) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @desc 找到正在执行的请求最少的可用从库，请求数相同时轮流使用
+     **/
+    private Replica leastLoaded() {
+        int start = next.getAndIncrement();
+        Replica least = null;
+        for (int i = 0; i < replicas.length; ++i) {
+            Replica replica = replicas[Math.floorMod(start + i, replicas.length)];
+            if (replica.available && (null == least || replica.active.get() < least.active.get())) {
+                least = replica;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * @desc 从库及其状态
+     */
+    private static class Replica {
+        private final DataSource dataSource;
+        //正在执行的请求数
+        private final AtomicInteger active = new AtomicInteger();
+        //复制延迟是否在允许范围内
+        private volatile boolean available = true;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.tm.orm.silence.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.tm.orm.silence.annotation.Cached;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @author yudm
+ * @date 2021/8/29 10:20
+ * @desc selectById的二级缓存，只对标注了@Cached的实体类生效，每个类一个有界的LRU缓存，写入后按ttl过期。
+ * 缓存中保存的是对象的拷贝，读取时也返回拷贝，调用者修改返回的对象不会影响缓存。
+ * 事务中写过的类，在该事务内不再读写缓存，避免读到或放入未提交的数据，事务结束后再次使写过的主键失效。
+ * 每个类有一个版本号，每次失效都加一，查询数据库前后版本号不同时不保留放入的结果，避免并发写入后缓存旧数据
+ */
+class EntityCache {
+    //类->缓存，只包含标注了@Cached的类
+    private final ConcurrentMap<Class<?>, Cache<Object, Object>> caches = new ConcurrentHashMap<>();
+    //类->版本号，只包含标注了@Cached的类
+    private final ConcurrentMap<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @params [clazz 实体类, id 主键值, loader 缓存中没有时查询数据库]
+     * @desc 从缓存中获取对象，没有时查询数据库并放入缓存，查询结果为null时不缓存，主键为null时不经过缓存
+     **/
+    <T> T get(Class<T> clazz, Object id, Supplier<T> loader) {
+        Cache<Object, Object> cache = getCache(clazz);
+        if (null == cache || null == id || isWritten(clazz)) {
+            return loader.get();
+        }
+        EntityMeta meta = EntityMeta.of(clazz);
+        Object key = toKey(id);
+        @SuppressWarnings("unchecked")
+        T value = (T) cache.getIfPresent(key);
+        if (null != value) {
+            return meta.copy(value);
+        }
+        AtomicLong version = getVersion(clazz);
+        long before = version.get();
+        value = loader.get();
+        if (null != value) {
+            cache.put(key, meta.copy(value));
+            //查询期间有写入时，查到的可能是旧数据，放入后再检查一次，避免与失效操作交错时留下旧数据
+            if (version.get() != before) {
+                cache.invalidate(key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @params [entities 写入的实体对象]
+     * @desc 写入数据库后使对应主键的缓存失效，事务中还会标记该类已被写过，事务结束时再次失效
+     **/
+    void invalidate(Collection<?> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        Class<?> clazz = entities.iterator().next().getClass();
+        Cache<Object, Object> cache = getCache(clazz);
+        if (null == cache) {
+            return;
+        }
+        FieldMeta idField = EntityMeta.of(clazz).getIdField();
+        List<Object> keys = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            Object id = idField.get(entity);
+            if (null != id) {
+                keys.add(toKey(id));
+            }
+        }
+        getVersion(clazz).incrementAndGet();
+        cache.invalidateAll(keys);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            markWritten(clazz, cache, keys);
+        }
+    }
+
+    /**
+     * @params [clazz 实体类]
+     * @desc 清空该类的缓存
+     **/
+    void invalidateAll(Class<?> clazz) {
+        Cache<Object, Object> cache = caches.get(clazz);
+        if (null != cache) {
+            getVersion(clazz).incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @desc 每个类缓存的命中统计
+     **/
+    Map<Class<?>, CacheStats> stats() {
+        Map<Class<?>, CacheStats> stats = new HashMap<>();
+        for (Map.Entry<Class<?>, Cache<Object, Object>> entry : caches.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().stats());
+        }
+        return stats;
+    }
+
+    /**
+     * @params [clazz 实体类]
+     * @desc 获取该类的缓存，没有标注@Cached时返回null
+     **/
+    private Cache<Object, Object> getCache(Class<?> clazz) {
+        Cached cached = EntityMeta.of(clazz).getCached();
+        if (null == cached) {
+            return null;
+        }
+        return caches.computeIfAbsent(clazz, k -> CacheBuilder.newBuilder()
+                .maximumSize(cached.maxSize())
+                .expireAfterWrite(cached.ttlSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build());
+    }
+
+    /**
+     * @params [clazz 实体类]
+     * @desc 获取该类的版本号
+     **/
+    private AtomicLong getVersion(Class<?> clazz) {
+        return versions.computeIfAbsent(clazz, k -> new AtomicLong());
+    }
+
+    /**
+     * @params [clazz 实体类]
+     * @desc 当前事务是否写过该类
+     **/
+    private boolean isWritten(Class<?> clazz) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        Written written = (Written) TransactionSynchronizationManager.getResource(this);
+        return null != written && written.keys.containsKey(clazz);
+    }
+
+    /**
+     * @params [clazz 实体类, cache 该类的缓存, keys 写过的主键]
+     * @desc 记录当前事务写过的类和主键，第一次记录时注册事务同步，事务结束后使这些主键再次失效
+     **/
+    private void markWritten(Class<?> clazz, Cache<Object, Object> cache, List<Object> keys) {
+        Written written = (Written) TransactionSynchronizationManager.getResource(this);
+        if (null == written) {
+            Written newWritten = new Written();
+            TransactionSynchronizationManager.bindResource(this, newWritten);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(EntityCache.this);
+                    for (Map.Entry<Class<?>, Set<Object>> entry : newWritten.keys.entrySet()) {
+                        getVersion(entry.getKey()).incrementAndGet();
+                        caches.get(entry.getKey()).invalidateAll(entry.getValue());
+                    }
+                }
+            });
+            written = newWritten;
+        }
+        written.keys.computeIfAbsent(clazz, k -> new HashSet<>()).addAll(keys);
+    }
+
+    /**
+     * @params [id 主键值]
+     * @desc 整数类型的主键统一转为Long，selectById(clazz, 1)和主键为Long的实体对应同一个缓存
+     **/
+    private static Object toKey(Object id) {
+        if (id instanceof Integer || id instanceof Long || id instanceof Short || id instanceof Byte) {
+            return ((Number) id).longValue();
+        }
+        return id;
+    }
+
+    /**
+     * @desc 一个事务中写过的类和主键
+     */
+    private static class Written {
+        private final Map<Class<?>, Set<Object>> keys = new HashMap<>();
+    }
+}
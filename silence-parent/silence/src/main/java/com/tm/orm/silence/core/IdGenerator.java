@@ -0,0 +1,26 @@
+package com.tm.orm.silence.core;
+
+/**
+ * @author yudm
+ * @date 2021/9/3 14:10
+ * @desc 主键生成器，插入前为主键标注了@GeneratedId并且主键为null的实体预先分配主键，不再依赖数据库自增和getGeneratedKeys回显
+ */
+public interface IdGenerator {
+    /**
+     * @params [table 表名，分表时为逻辑表名]
+     * @desc 为该表生成一个主键
+     **/
+    long nextId(String table);
+
+    /**
+     * @params [table 表名，分表时为逻辑表名, size 数量]
+     * @desc 为该表批量生成主键，用于批量插入，可以按号段一次取出
+     **/
+    default long[] nextIds(String table, int size) {
+        long[] ids = new long[size];
+        for (int i = 0; i < size; ++i) {
+            ids[i] = nextId(table);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,35 @@
+package com.tm.orm.silence.core;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * @author yudm
+ * @date 2021/8/31 9:30
+ * @desc 检查从库的复制延迟，延迟超过上限或检查失败的从库暂时不分配读请求
+ */
+@FunctionalInterface
+public interface LagChecker {
+    /**
+     * @params [replica 从库]
+     * @desc 获取从库的复制延迟，毫秒
+     **/
+    long getLagMillis(DataSource replica) throws Exception;
+
+    /**
+     * @desc mysql的检查方式，通过show slave status的Seconds_Behind_Master获取延迟，复制中断时视为无限延迟
+     **/
+    static LagChecker mysql() {
+        return replica -> {
+            try (Connection con = replica.getConnection(); Statement st = con.createStatement(); ResultSet rs = st.executeQuery("show slave status")) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                long seconds = rs.getLong("Seconds_Behind_Master");
+                return rs.wasNull() ? Long.MAX_VALUE : seconds * 1000;
+            }
+        };
+    }
+}
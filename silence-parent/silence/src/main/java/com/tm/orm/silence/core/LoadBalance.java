@@ -0,0 +1,13 @@
+package com.tm.orm.silence.core;
+
+/**
+ * @author yudm
+ * @date 2021/8/31 9:20
+ * @desc 读请求在多个从库之间的分配方式
+ */
+public enum LoadBalance {
+    //依次轮流使用每个从库
+    ROUND_ROBIN,
+    //使用当前正在执行的请求最少的从库，适合各从库配置或负载不均的场景
+    LEAST_LOADED
+}
@@ -1,23 +1,40 @@
 package com.tm.orm.silence.core;
 
+import com.tm.orm.silence.exception.SqlException;
+
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * @author yudm
  * @date 2021/5/14 12:30
- * @desc 分页的信息类
+ * @desc 分页的信息类。默认按页号分页(limit offset,size)；通过keyset创建时按排序键分页，每页从上一页最后一行的排序键之后开始，
+ * 查询代价与翻到第几页无关
  */
 public class Page<T> {
     //是否查询数量
     private boolean searchTotal;
     //总数
     private int total;
+    //查询总数的方式
+    private CountMode countMode = CountMode.EXACT;
+    //是否并行执行count查询和数据查询，两个查询各占用一个连接，在事务中时不生效
+    private boolean parallel;
     //页号
     private int pageNum;
     //每页大小
     private int pageSize;
     //数据列表
     private List<T> list;
+    //按排序键分页时的排序键，即结果集中的列名，为空表示按页号分页
+    private List<String> sortKeys = Collections.emptyList();
+    //按排序键分页时是否倒序，所有排序键使用相同的方向
+    private boolean desc;
+    //上一页最后一行的排序键的值，为null表示第一页，查询后自动更新为本页最后一行的值
+    private Object[] lastKeys;
+    //按排序键分页时是否还有下一页
+    private boolean hasNext;
 
     public Page(int pageNum, int pageSize, boolean searchTotal) {
         this.pageNum = pageNum;
@@ -25,6 +42,26 @@ public class Page<T> {
         this.searchTotal = searchTotal;
     }
 
+    /**
+     * @params [pageSize 每页大小, sortKeys 排序键，即结果集中的列名，组合起来必须唯一，如 create_time,id]
+     * @desc 创建按排序键分页的分页对象，不查询总数
+     **/
+    public static <T> Page<T> keyset(int pageSize, String... sortKeys) {
+        if (sortKeys.length < 1) {
+            throw new SqlException("sortKeys can not be empty");
+        }
+        Page<T> page = new Page<>(1, pageSize, false);
+        page.sortKeys = Collections.unmodifiableList(Arrays.asList(sortKeys.clone()));
+        return page;
+    }
+
+    /**
+     * @desc 是否按排序键分页
+     **/
+    public boolean isKeyset() {
+        return !sortKeys.isEmpty();
+    }
+
     public boolean isSearchTotal() {
         return searchTotal;
     }
@@ -41,6 +78,22 @@ public class Page<T> {
         this.total = total;
     }
 
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    public void setCountMode(CountMode countMode) {
+        this.countMode = null == countMode ? CountMode.EXACT : countMode;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public int getPageNum() {
         return pageNum;
     }
@@ -64,4 +117,35 @@ public class Page<T> {
     public void setList(List<T> list) {
         this.list = list;
     }
+
+    public List<String> getSortKeys() {
+        return sortKeys;
+    }
+
+    public boolean isDesc() {
+        return desc;
+    }
+
+    public void setDesc(boolean desc) {
+        this.desc = desc;
+    }
+
+    public Object[] getLastKeys() {
+        return lastKeys;
+    }
+
+    public void setLastKeys(Object... lastKeys) {
+        if (null != lastKeys && lastKeys.length != sortKeys.size()) {
+            throw new SqlException("the size of lastKeys must be equal to sortKeys");
+        }
+        this.lastKeys = lastKeys;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    public void setHasNext(boolean hasNext) {
+        this.hasNext = hasNext;
+    }
 }
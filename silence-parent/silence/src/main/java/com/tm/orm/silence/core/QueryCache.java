@@ -0,0 +1,397 @@
+package com.tm.orm.silence.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
+import com.tm.orm.silence.util.MappingPlan;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.net.URI;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAmount;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author yudm
+ * @date 2021/8/30 9:40
+ * @desc 查询结果缓存，按(最终sql, 参数, 返回类型)缓存结果。每张表有一个版本号，通过Table写入某张表时版本号加一，
+ * 缓存项记录了查询时涉及的表的版本号，读取时版本号变化则视为失效，不需要遍历缓存查找读过该表的项。
+ * 缓存的总大小按估算的字节数限制，写入后按ttl过期，读取和放入的都是拷贝，无法拷贝的结果不缓存
+ */
+class QueryCache {
+    //sql解析出的表名的缓存数量
+    private static final int TABLE_CACHE_SIZE = 4096;
+    //估算大小时对象头和引用的字节数
+    private static final int OBJECT_BYTES = 16;
+    private static final int REF_BYTES = 8;
+    //无法拷贝的结果，查询结果中含有这样的对象时不放入缓存
+    private static final Object UNCACHEABLE = new Object();
+    //除了MappingPlan.isValueType外，可以直接共享的不可变类型
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(UUID.class, Locale.class, Currency.class, URI.class, Class.class));
+    //表名前面的关键字
+    private static final Pattern TABLE_KEYWORD = Pattern.compile("\\b(?:from|join|into|update)\\b\\s*", Pattern.CASE_INSENSITIVE);
+    //表名，可以带库名和反引号
+    private static final Pattern TABLE_NAME = Pattern.compile("`?(\\w+)`?(?:\\.`?(\\w+)`?)?");
+    //表的别名
+    private static final Pattern TABLE_ALIAS = Pattern.compile("\\s+(?:as\\s+)?`?\\w+`?", Pattern.CASE_INSENSITIVE);
+    //多个表之间的逗号
+    private static final Pattern TABLE_COMMA = Pattern.compile("\\s*,\\s*");
+    //sql->涉及的表名
+    private final Cache<String, String[]> tableCache = CacheBuilder.newBuilder().maximumSize(TABLE_CACHE_SIZE).build();
+    //表名->版本号
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    //命中次数，版本号变化的缓存项算作未命中
+    private final LongAdder hitCount = new LongAdder();
+    //未命中次数
+    private final LongAdder missCount = new LongAdder();
+    //结果缓存，maxBytes为0时为null
+    private volatile Cache<List<Object>, Entry> cache;
+
+    QueryCache(long maxBytes, int seconds) {
+        configure(maxBytes, seconds);
+    }
+
+    /**
+     * @params [maxBytes 缓存结果的最大总字节数，0表示关闭, seconds 缓存时间，秒]
+     * @desc 重新创建缓存，已缓存的结果被丢弃
+     **/
+    void configure(long maxBytes, int seconds) {
+        this.cache = maxBytes < 1 ? null : CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(QueryCache::weigh)
+                .expireAfterWrite(seconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @params [clazz 返回类型, single 是否查询单个, bound 查询语句, loader 缓存中没有时查询数据库]
+     * @desc 从缓存中获取结果，没有或已失效时查询数据库并放入缓存
+     **/
+    @SuppressWarnings("unchecked")
+    <R> R get(Class<?> clazz, boolean single, BoundSql bound, Supplier<R> loader) {
+        Cache<List<Object>, Entry> cache = this.cache;
+        String[] tables = getTables(bound.getSql());
+        if (null == cache || isWritten(tables)) {
+            return loader.get();
+        }
+        List<Object> key = Arrays.asList(bound, clazz, single);
+        Entry entry = cache.asMap().get(key);
+        if (null != entry && entry.isValid()) {
+            hitCount.increment();
+            return (R) copy(entry.value);
+        }
+        missCount.increment();
+        //先记录版本号再查询，查询期间有写入时放入的结果会被当作失效
+        long[] stamps = new long[tables.length];
+        for (int i = 0; i < tables.length; ++i) {
+            stamps[i] = version(tables[i]).get();
+        }
+        R value = loader.get();
+        Object copy = copy(value);
+        if (UNCACHEABLE != copy) {
+            cache.put(key, new Entry(copy, tables, stamps));
+        }
+        return value;
+    }
+
+    /**
+     * @params [sql 执行的增删改语句]
+     * @desc 使sql涉及的表的缓存失效
+     **/
+    void invalidate(String sql) {
+        invalidateTables(getTables(sql));
+    }
+
+    /**
+     * @params [tables 写入的表]
+     * @desc 表的版本号加一，读过这些表的缓存项全部失效。事务中还会标记这些表已被写过，事务结束时再次失效
+     **/
+    void invalidateTables(String... tables) {
+        if (null == cache) {
+            return;
+        }
+        for (String table : tables) {
+            version(table).incrementAndGet();
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            markWritten(tables);
+        }
+    }
+
+    /**
+     * @desc 缓存的命中统计
+     **/
+    CacheStats stats() {
+        Cache<List<Object>, Entry> cache = this.cache;
+        long evictionCount = null == cache ? 0 : cache.stats().evictionCount();
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount);
+    }
+
+    /**
+     * @params [sql sql语句]
+     * @desc 解析sql中from、join、into、update后面的表名，解析不准确时只会多失效，不会漏掉
+     **/
+    private String[] getTables(String sql) {
+        String[] tables = tableCache.getIfPresent(sql);
+        if (null == tables) {
+            tables = parseTables(sql);
+            tableCache.put(sql, tables);
+        }
+        return tables;
+    }
+
+    /**
+     * @params [sql sql语句]
+     * @desc 解析表名，支持 库名.表名、反引号、别名以及 from a, b 的写法，表名统一转为小写
+     **/
+    static String[] parseTables(String sql) {
+        Set<String> tables = new LinkedHashSet<>();
+        Matcher keyword = TABLE_KEYWORD.matcher(sql);
+        Matcher name = TABLE_NAME.matcher(sql);
+        Matcher alias = TABLE_ALIAS.matcher(sql);
+        Matcher comma = TABLE_COMMA.matcher(sql);
+        while (keyword.find()) {
+            int i = keyword.end();
+            while (name.region(i, sql.length()).lookingAt()) {
+                tables.add((null == name.group(2) ? name.group(1) : name.group(2)).toLowerCase());
+                i = name.end();
+                if (alias.region(i, sql.length()).lookingAt()) {
+                    i = alias.end();
+                }
+                if (!comma.region(i, sql.length()).lookingAt()) {
+                    break;
+                }
+                i = comma.end();
+            }
+        }
+        return tables.toArray(new String[0]);
+    }
+
+    /**
+     * @params [table 表名]
+     * @desc 获取表的版本号
+     **/
+    private AtomicLong version(String table) {
+        return versions.computeIfAbsent(table, k -> new AtomicLong());
+    }
+
+    /**
+     * @params [tables 查询涉及的表]
+     * @desc 当前事务是否写过其中的表，写过时不读写缓存，避免读到或放入未提交的数据
+     **/
+    private boolean isWritten(String[] tables) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> written = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (null == written) {
+            return false;
+        }
+        for (String table : tables) {
+            if (written.contains(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @params [tables 写入的表]
+     * @desc 记录当前事务写过的表，第一次记录时注册事务同步，事务结束后这些表的版本号再加一
+     **/
+    @SuppressWarnings("unchecked")
+    private void markWritten(String[] tables) {
+        Set<String> written = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (null == written) {
+            Set<String> newWritten = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, newWritten);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(QueryCache.this);
+                    for (String table : newWritten) {
+                        version(table).incrementAndGet();
+                    }
+                }
+            });
+            written = newWritten;
+        }
+        written.addAll(Arrays.asList(tables));
+    }
+
+    /**
+     * @params [key 缓存的键, entry 缓存项]
+     * @desc 估算缓存项占用的字节数
+     **/
+    private static int weigh(List<Object> key, Entry entry) {
+        long bytes = OBJECT_BYTES * 4 + estimate(key.get(0).toString()) + estimate(entry.value);
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @params [obj 结果对象，已经通过copy拷贝过]
+     * @desc 粗略估算对象占用的字节数，字符串按字符数，集合和Map累加元素，实体对象递归累加字段
+     **/
+    private static long estimate(Object obj) {
+        if (null == obj) {
+            return 0;
+        }
+        if (obj instanceof CharSequence) {
+            return OBJECT_BYTES * 2 + 2L * ((CharSequence) obj).length();
+        }
+        if (obj instanceof byte[]) {
+            return OBJECT_BYTES + ((byte[]) obj).length;
+        }
+        if (obj instanceof Collection) {
+            long bytes = OBJECT_BYTES * 2;
+            for (Object item : (Collection<?>) obj) {
+                bytes += REF_BYTES + estimate(item);
+            }
+            return bytes;
+        }
+        if (obj instanceof Map) {
+            long bytes = OBJECT_BYTES * 2;
+            for (Map.Entry<?, ?> item : ((Map<?, ?>) obj).entrySet()) {
+                bytes += OBJECT_BYTES + REF_BYTES * 2 + estimate(item.getKey()) + estimate(item.getValue());
+            }
+            return bytes;
+        }
+        if (isImmutable(obj.getClass())) {
+            return OBJECT_BYTES + REF_BYTES;
+        }
+        long bytes = OBJECT_BYTES;
+        for (FieldMeta field : EntityMeta.of(obj.getClass()).getFields()) {
+            bytes += REF_BYTES + estimate(field.get(obj));
+        }
+        return bytes;
+    }
+
+    /**
+     * @params [obj 结果对象]
+     * @desc 深拷贝查询结果，不可变的值类型直接返回，java.util中的集合和Map、实体对象逐个拷贝，
+     * 其他无法确定能否安全拷贝的对象返回UNCACHEABLE
+     **/
+    private static Object copy(Object obj) {
+        if (null == obj) {
+            return null;
+        }
+        if (obj instanceof byte[]) {
+            return ((byte[]) obj).clone();
+        }
+        if (obj instanceof Date) {
+            return ((Date) obj).clone();
+        }
+        Class<?> clazz = obj.getClass();
+        if (isImmutable(clazz)) {
+            return obj;
+        }
+        if (clazz.isArray() || isJdkType(clazz) && !clazz.getName().startsWith("java.util.")) {
+            return UNCACHEABLE;
+        }
+        if (obj instanceof Collection) {
+            Collection<?> source = (Collection<?>) obj;
+            Collection<Object> collection = obj instanceof Set ? new LinkedHashSet<>() : new ArrayList<>(source.size());
+            for (Object item : source) {
+                Object copy = copy(item);
+                if (UNCACHEABLE == copy) {
+                    return UNCACHEABLE;
+                }
+                collection.add(copy);
+            }
+            return collection;
+        }
+        if (obj instanceof Map) {
+            Map<Object, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> item : ((Map<?, ?>) obj).entrySet()) {
+                Object key = copy(item.getKey());
+                Object value = copy(item.getValue());
+                if (UNCACHEABLE == key || UNCACHEABLE == value) {
+                    return UNCACHEABLE;
+                }
+                map.put(key, value);
+            }
+            return map;
+        }
+        if (isJdkType(clazz)) {
+            return UNCACHEABLE;
+        }
+        return copyEntity(obj);
+    }
+
+    /**
+     * @params [obj 实体对象]
+     * @desc 拷贝实体对象的所有字段，没有无参构造器或字段无法拷贝时返回UNCACHEABLE
+     **/
+    private static Object copyEntity(Object obj) {
+        try {
+            EntityMeta meta = EntityMeta.of(obj.getClass());
+            Object copy = meta.newInstance();
+            for (FieldMeta field : meta.getFields()) {
+                Object value = copy(field.get(obj));
+                if (UNCACHEABLE == value) {
+                    return UNCACHEABLE;
+                }
+                field.set(copy, value);
+            }
+            return copy;
+        } catch (SqlException e) {
+            return UNCACHEABLE;
+        }
+    }
+
+    /**
+     * @params [clazz 对象类型]
+     * @desc 判断是否是可以直接共享的不可变类型，Date虽然是值类型但可变，由调用者单独处理
+     **/
+    private static boolean isImmutable(Class<?> clazz) {
+        return MappingPlan.isValueType(clazz) || clazz.isEnum() || null != clazz.getSuperclass() && clazz.getSuperclass().isEnum()
+                || IMMUTABLE_TYPES.contains(clazz) || TemporalAmount.class.isAssignableFrom(clazz) || ZoneId.class.isAssignableFrom(clazz);
+    }
+
+    /**
+     * @params [clazz 对象类型]
+     * @desc 判断是否是jdk中的类型，这些类型不能当作实体类拷贝
+     **/
+    private static boolean isJdkType(Class<?> clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("jdk.");
+    }
+
+    /**
+     * @desc 缓存项，记录查询时涉及的表的版本号
+     */
+    private class Entry {
+        private final Object value;
+        private final String[] tables;
+        private final long[] stamps;
+
+        private Entry(Object value, String[] tables, long[] stamps) {
+            this.value = value;
+            this.tables = tables;
+            this.stamps = stamps;
+        }
+
+        private boolean isValid() {
+            for (int i = 0; i < tables.length; ++i) {
+                if (version(tables[i]).get() != stamps[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.util.ExecutorUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * @author yudm
+ * @date 2021/8/28 9:30
+ * @desc 一组互不依赖的查询，通过Table.parallel()创建。先登记查询得到结果句柄，再调用execute并发执行，
+ * 每个查询在异步线程池中使用各自的连接，所有查询在同一个超时时间内完成，总耗时约等于最慢的那个查询。
+ * 线程池饱和时等待空位的时间也计入超时时间，查询总是在线程池中执行，不会加入调用者当前的事务。
+ * 分片的实体类与Table一样查询对应的分片并合并结果。任意一个查询失败或超时，会取消其余未完成的查询并抛出异常
+ */
+public class QueryGroup {
+    //sql执行器
+    private final SqlExecutor sqlExecutor;
+    //登记的查询
+    private final List<Query<?>> queries = new ArrayList<>();
+    //是否已经执行
+    private boolean executed;
+    //整组查询的耗时，纳秒
+    private long elapsedNanos;
+
+    QueryGroup(SqlExecutor sqlExecutor) {
+        this.sqlExecutor = sqlExecutor;
+    }
+
+    /**
+     * @params [clazz 用于映射表、获取主键名、返回对象类型, id 主键值]
+     * @desc 登记通过主键查询，与Table.selectById一样，标注了@Cached时先查二级缓存
+     */
+    public <T> Query<T> selectById(Class<T> clazz, Object id) {
+        notNull(clazz, "clazz");
+        notNull(id, "id");
+        return add(sqlExecutor.getSqlBuilder().buildSelectByIdSql(clazz, id), () -> sqlExecutor.selectById(clazz, id));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, sql 简单查询sql语句，可含有占位符，但不能含有动态语句, data 占位符对应的参数列表]
+     * @desc 登记通过简单sql语句查询单个
+     */
+    public <T> Query<T> simpleSelectOne(Class<T> clazz, String sql, Object... data) {
+        notNull(clazz, "clazz");
+        BoundSql bound = BoundSql.of(sql, data);
+        return add(bound, () -> sqlExecutor.doQueryOne(clazz, bound));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象字节码, sql 简单查询sql语句，可含有占位符，但不能含有动态语句, data 占位符对应的参数列表]
+     * @desc 登记通过简单sql语句查询多个
+     */
+    public <T> Query<List<T>> simpleSelectList(Class<T> clazz, String sql, Object... data) {
+        notNull(clazz, "clazz");
+        BoundSql bound = BoundSql.of(sql, data);
+        return add(bound, () -> sqlExecutor.doQueryList(clazz, bound));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 登记通过带有动态语句的sql查询单个
+     */
+    public <T> Query<T> selectOne(Class<T> clazz, String sql, Object data) {
+        notNull(clazz, "clazz");
+        notNull(data, "data");
+        BoundSql bound = sqlExecutor.getSqlBuilder().build(sql, data);
+        return add(bound, () -> sqlExecutor.doQueryOne(clazz, bound));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 登记通过带有动态语句的sql查询多个
+     */
+    public <T> Query<List<T>> selectList(Class<T> clazz, String sql, Object data) {
+        notNull(clazz, "clazz");
+        notNull(data, "data");
+        BoundSql bound = sqlExecutor.getSqlBuilder().build(sql, data);
+        return add(bound, () -> sqlExecutor.doQueryList(clazz, bound));
+    }
+
+    /**
+     * @desc 并发执行所有登记的查询，等待全部完成
+     */
+    public QueryGroup execute() {
+        return execute(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @params [timeout 整组查询的超时时间, unit 时间单位]
+     * @desc 并发执行所有登记的查询，所有查询需要在timeout内完成，否则取消未完成的查询并抛出异常
+     */
+    public QueryGroup execute(long timeout, TimeUnit unit) {
+        notNull(unit, "unit");
+        if (executed) {
+            throw new SqlException("query group has already been executed");
+        }
+        executed = true;
+        long start = System.nanoTime();
+        long timeoutNanos = unit.toNanos(timeout);
+        ExecutorService executor = sqlExecutor.getAsyncExecutor();
+        List<Future<?>> futures = new ArrayList<>(queries.size());
+        try {
+            for (Query<?> query : queries) {
+                Supplier<?> task = sqlExecutor.bindRouter(query::call);
+                long remaining = timeoutNanos - (System.nanoTime() - start);
+                try {
+                    futures.add(ExecutorUtil.submit(executor, task::get, remaining));
+                } catch (RejectedExecutionException e) {
+                    if (System.nanoTime() - start >= timeoutNanos) {
+                        throw timeoutException(timeout, unit);
+                    }
+                    throw new SqlException(e);
+                }
+            }
+            for (Future<?> future : futures) {
+                long remaining = timeoutNanos - (System.nanoTime() - start);
+                await(future, remaining, timeout, unit);
+            }
+        } catch (RuntimeException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+        return this;
+    }
+
+    /**
+     * @desc 整组查询的耗时，毫秒
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @desc 登记的查询，用于execute后获取各自的结果和耗时
+     */
+    public List<Query<?>> getQueries() {
+        return new ArrayList<>(queries);
+    }
+
+    /**
+     * @params [bound 查询语句, action 执行查询并映射结果]
+     * @desc 登记查询，sql在登记时构建，语法错误可以在执行前发现
+     */
+    private <R> Query<R> add(BoundSql bound, Supplier<R> action) {
+        if (executed) {
+            throw new SqlException("query group has already been executed");
+        }
+        Query<R> query = new Query<>(bound, action);
+        queries.add(query);
+        return query;
+    }
+
+    /**
+     * @params [future 查询的结果, remaining 剩余的超时时间，纳秒, timeout 超时时间, unit 时间单位]
+     * @desc 等待查询完成，查询中的SqlException原样抛出
+     */
+    private static void await(Future<?> future, long remaining, long timeout, TimeUnit unit) {
+        try {
+            future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw timeoutException(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SqlException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SqlException) {
+                throw (SqlException) cause;
+            }
+            throw new SqlException(cause);
+        }
+    }
+
+    /**
+     * @params [timeout 超时时间, unit 时间单位]
+     * @desc 整组查询超时的异常
+     */
+    private static SqlException timeoutException(long timeout, TimeUnit unit) {
+        return new SqlException("query group timed out after " + timeout + " " + unit.name().toLowerCase());
+    }
+
+    /**
+     * @params [obj 参数, msg 信息]
+     * @desc 非空判断
+     **/
+    private static void notNull(Object obj, String title) {
+        if (null == obj) {
+            throw new SqlException(title + " can not be null");
+        }
+    }
+
+    /**
+     * @desc 组中的一个查询，execute之后可以获取结果和耗时
+     */
+    public class Query<R> implements Callable<R> {
+        //查询语句，分片的实体类实际执行的是各个分片改写后的语句
+        private final BoundSql bound;
+        //执行查询并映射结果
+        private final Supplier<R> action;
+        //查询结果
+        private volatile R result;
+        //是否执行完成
+        private volatile boolean done;
+        //查询耗时，纳秒
+        private volatile long elapsedNanos;
+
+        private Query(BoundSql bound, Supplier<R> action) {
+            this.bound = bound;
+            this.action = action;
+        }
+
+        @Override
+        public R call() {
+            long start = System.nanoTime();
+            try {
+                result = action.get();
+                done = true;
+                return result;
+            } finally {
+                elapsedNanos = System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * @desc 获取查询结果，必须在整组执行成功后调用
+         */
+        public R get() {
+            if (!done) {
+                throw new SqlException("query has not been executed: " + bound.getSql());
+            }
+            return result;
+        }
+
+        /**
+         * @desc 查询耗时，毫秒，包括获取连接、执行和映射结果
+         */
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * @desc 最终执行的sql
+         */
+        public String getSql() {
+            return bound.getSql();
+        }
+    }
+}
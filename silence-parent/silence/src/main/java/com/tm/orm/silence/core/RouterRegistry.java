@@ -0,0 +1,174 @@
+package com.tm.orm.silence.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tm.orm.silence.annotation.UseDataSource;
+import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.util.CallerUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * @author yudm
+ * @date 2021/9/1 11:00
+ * @desc 多数据源的路由表。按调用Table的业务类选择数据源：类上标注了@UseDataSource时使用指定的数据源，
+ * 否则按包名前缀最长匹配，都没有时使用默认数据源。每个业务类只解析一次，之后每次调用只需找到调用者的类，
+ * 没有配置其他数据源时完全不遍历调用栈。异步执行时在提交任务的线程中确定数据源并绑定到执行线程上
+ */
+class RouterRegistry {
+    //默认数据源的路由
+    private volatile DataSourceRouter defaultRouter;
+    //名称->数据源路由
+    private final Map<String, DataSourceRouter> namedRouters = new ConcurrentHashMap<>();
+    //包名前缀->数据源名称，按前缀长度从长到短排列
+    private volatile List<Map.Entry<String, String>> packageRoutes = Collections.emptyList();
+    //业务类->数据源路由，类被卸载时自动移除
+    private final Cache<Class<?>, DataSourceRouter> callerRouters = CacheBuilder.newBuilder().weakKeys().build();
+    //当前线程绑定的数据源路由
+    private final ThreadLocal<DataSourceRouter> boundRouter = new ThreadLocal<>();
+
+    /**
+     * @desc 获取当前操作使用的数据源路由
+     **/
+    DataSourceRouter current() {
+        DataSourceRouter router = boundRouter.get();
+        if (null != router) {
+            return router;
+        }
+        if (namedRouters.isEmpty()) {
+            return defaultRouter;
+        }
+        Class<?> caller = CallerUtil.getCallerClass();
+        if (null == caller) {
+            return defaultRouter;
+        }
+        router = callerRouters.getIfPresent(caller);
+        if (null == router) {
+            router = resolve(caller);
+            callerRouters.put(caller, router);
+        }
+        return router;
+    }
+
+    /**
+     * @params [task 异步执行的任务]
+     * @desc 在当前线程确定数据源路由，任务执行时绑定到执行线程上
+     **/
+    <R> Supplier<R> bind(Supplier<R> task) {
+        DataSourceRouter router = current();
+        return () -> call(router, task);
+    }
+
+    /**
+     * @params [router 数据源路由, task 任务]
+     * @desc 在当前线程上使用指定的数据源路由执行任务
+     **/
+    <R> R call(DataSourceRouter router, Supplier<R> task) {
+        DataSourceRouter old = boundRouter.get();
+        boundRouter.set(router);
+        try {
+            return task.get();
+        } finally {
+            if (null == old) {
+                boundRouter.remove();
+            } else {
+                boundRouter.set(old);
+            }
+        }
+    }
+
+    /**
+     * @params [name 数据源名称]
+     * @desc 获取命名的数据源路由
+     **/
+    DataSourceRouter get(String name) {
+        DataSourceRouter router = namedRouters.get(name);
+        if (null == router) {
+            throw new SqlException("unknown datasource: " + name);
+        }
+        return router;
+    }
+
+    DataSourceRouter getDefault() {
+        return defaultRouter;
+    }
+
+    /**
+     * @params [router 默认数据源的路由]
+     * @desc 设置默认数据源的路由，替换原来的路由时停止其复制延迟检查
+     **/
+    void setDefault(DataSourceRouter router) {
+        DataSourceRouter old = defaultRouter;
+        defaultRouter = router;
+        callerRouters.invalidateAll();
+        if (null != old && old != router) {
+            old.close();
+        }
+    }
+
+    /**
+     * @params [name 数据源名称, router 数据源路由]
+     * @desc 添加命名的数据源
+     **/
+    void put(String name, DataSourceRouter router) {
+        DataSourceRouter old = namedRouters.put(name, router);
+        callerRouters.invalidateAll();
+        if (null != old && old != router) {
+            old.close();
+        }
+    }
+
+    /**
+     * @params [routes 包名前缀->数据源名称]
+     * @desc 设置按包名的路由，数据源需要先通过put添加
+     **/
+    void setPackageRoutes(Map<String, String> routes) {
+        List<Map.Entry<String, String>> list = new ArrayList<>();
+        for (Map.Entry<String, String> route : routes.entrySet()) {
+            if (!namedRouters.containsKey(route.getValue())) {
+                throw new SqlException("unknown datasource: " + route.getValue());
+            }
+            list.add(new AbstractMap.SimpleImmutableEntry<>(route.getKey(), route.getValue()));
+        }
+        list.sort((a, b) -> b.getKey().length() - a.getKey().length());
+        packageRoutes = list;
+        callerRouters.invalidateAll();
+    }
+
+    /**
+     * @desc 停止所有数据源的复制延迟检查
+     **/
+    void close() {
+        if (null != defaultRouter) {
+            defaultRouter.close();
+        }
+        for (DataSourceRouter router : namedRouters.values()) {
+            router.close();
+        }
+    }
+
+    /**
+     * @params [caller 业务类]
+     * @desc 解析业务类使用的数据源路由
+     **/
+    private DataSourceRouter resolve(Class<?> caller) {
+        UseDataSource use = caller.getAnnotation(UseDataSource.class);
+        if (null != use) {
+            DataSourceRouter router = namedRouters.get(use.value());
+            if (null == router) {
+                throw new SqlException("unknown datasource: " + use.value() + " on " + caller.getName());
+            }
+            return router;
+        }
+        String className = caller.getName();
+        for (Map.Entry<String, String> route : packageRoutes) {
+            String prefix = route.getKey();
+            if (className.startsWith(prefix) && (className.length() == prefix.length() || '.' == className.charAt(prefix.length()))) {
+                return namedRouters.get(route.getValue());
+            }
+        }
+        return defaultRouter;
+    }
+}
@@ -0,0 +1,89 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * @author yudm
+ * @date 2021/9/2 14:20
+ * @desc 合并多个分片的查询结果。每个分片的结果已经由数据库排好序，按相同的顺序做多路归并，不需要整体重新排序
+ */
+class ShardMerger {
+    /**
+     * @params [lists 每个分片的结果, comparator 排序规则，为null时按分片顺序直接拼接]
+     * @desc 多路归并各分片的有序结果
+     **/
+    static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> comparator) {
+        int total = 0;
+        for (List<T> list : lists) {
+            total += list.size();
+        }
+        List<T> merged = new ArrayList<>(total);
+        if (null == comparator) {
+            for (List<T> list : lists) {
+                merged.addAll(list);
+            }
+            return merged;
+        }
+        //{分片下标, 该分片中的位置}，相等时先取下标小的分片，保证结果稳定
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()), (a, b) -> {
+            int c = comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+            return 0 != c ? c : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < lists.size(); ++i) {
+            if (!lists.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<T> list = lists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @params [clazz 实体类, orderBy 排序项，即 [列名, asc|desc]]
+     * @desc 根据order by构建排序规则，有列找不到对应字段时返回null
+     **/
+    static Comparator<Object> comparator(Class<?> clazz, List<String[]> orderBy) {
+        if (orderBy.isEmpty()) {
+            return null;
+        }
+        EntityMeta meta = EntityMeta.of(clazz);
+        Comparator<Object> comparator = null;
+        for (String[] item : orderBy) {
+            FieldMeta field = meta.getByColumn(item[0]);
+            if (null == field) {
+                return null;
+            }
+            Comparator<Object> next = by(field::get, "desc".equals(item[1]));
+            comparator = null == comparator ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+
+    /**
+     * @params [getter 获取排序值, desc 是否倒序]
+     * @desc 按值排序，与mysql一致，正序时null在最前，倒序时null在最后
+     **/
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Comparator<Object> by(Function<Object, Object> getter, boolean desc) {
+        Comparator<Object> comparator = (a, b) -> {
+            Object x = getter.apply(a);
+            Object y = getter.apply(b);
+            if (null == x || null == y) {
+                return null == x ? (null == y ? 0 : -1) : 1;
+            }
+            return ((Comparable) x).compareTo(y);
+        };
+        return desc ? comparator.reversed() : comparator;
+    }
+}
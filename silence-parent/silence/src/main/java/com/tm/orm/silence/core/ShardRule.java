@@ -0,0 +1,115 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author yudm
+ * @date 2021/9/2 10:10
+ * @desc 实体类的分片规则。逻辑表名是实体类对应的表名，物理表名是 逻辑表名_后缀，
+ * 分片按下标连续地分配到各个数据源上，例如16张表4个数据源时，0~3在第一个数据源，4~7在第二个，依此类推。
+ * 没有指定数据源时所有分片都在调用者当前使用的数据源上
+ */
+public final class ShardRule {
+    //实体类
+    private final Class<?> clazz;
+    //逻辑表名
+    private final String logicalTable;
+    //分片键
+    private final FieldMeta shardField;
+    //分片策略
+    private final ShardingStrategy strategy;
+    //分片所在的数据源名称
+    private final List<String> dataSources;
+
+    /**
+     * @params [clazz 实体类，必须有@ShardKey标注的字段, strategy 分片策略, dataSources 分片所在的数据源名称]
+     **/
+    public ShardRule(Class<?> clazz, ShardingStrategy strategy, String... dataSources) {
+        EntityMeta meta = EntityMeta.of(clazz);
+        if (null == meta.getShardField()) {
+            throw new SqlException("there is no @ShardKey field in " + clazz.getName());
+        }
+        if (null == strategy) {
+            throw new SqlException("strategy can not be null");
+        }
+        if (dataSources.length > strategy.size()) {
+            throw new SqlException("the number of datasources can not be greater than the number of shards");
+        }
+        this.clazz = clazz;
+        this.logicalTable = meta.getTableName();
+        this.shardField = meta.getShardField();
+        this.strategy = strategy;
+        this.dataSources = Collections.unmodifiableList(Arrays.asList(dataSources.clone()));
+    }
+
+    /**
+     * @params [entity 实体对象]
+     * @desc 计算实体对象所在的分片
+     **/
+    public int shardOf(Object entity) {
+        return shardOfValue(shardField.get(entity));
+    }
+
+    /**
+     * @params [value 分片键的值]
+     * @desc 计算分片键的值所在的分片
+     **/
+    public int shardOfValue(Object value) {
+        if (null == value) {
+            throw new SqlException("the value of shard key can not be null: " + clazz.getName() + "." + shardField.getName());
+        }
+        int index = strategy.shard(value);
+        if (index < 0 || index >= strategy.size()) {
+            throw new SqlException("shard index out of range: " + index);
+        }
+        return index;
+    }
+
+    /**
+     * @params [index 分片下标]
+     * @desc 分片对应的物理表名
+     **/
+    public String tableName(int index) {
+        return logicalTable + "_" + strategy.suffix(index);
+    }
+
+    /**
+     * @params [index 分片下标]
+     * @desc 分片所在的数据源名称，没有指定数据源时为null
+     **/
+    public String dataSource(int index) {
+        if (dataSources.isEmpty()) {
+            return null;
+        }
+        return dataSources.get(index * dataSources.size() / strategy.size());
+    }
+
+    /**
+     * @desc 分片总数
+     **/
+    public int size() {
+        return strategy.size();
+    }
+
+    public Class<?> getClazz() {
+        return clazz;
+    }
+
+    public String getLogicalTable() {
+        return logicalTable;
+    }
+
+    public FieldMeta getShardField() {
+        return shardField;
+    }
+
+    public List<String> getDataSources() {
+        return dataSources;
+    }
+}
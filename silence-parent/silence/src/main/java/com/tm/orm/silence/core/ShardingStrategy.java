@@ -0,0 +1,120 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.exception.SqlException;
+
+import java.time.ZoneId;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+/**
+ * @author yudm
+ * @date 2021/9/2 9:40
+ * @desc 分片策略，根据分片键的值计算分片下标，下标决定物理表名的后缀和所在的数据源
+ */
+public interface ShardingStrategy {
+    /**
+     * @desc 分片总数
+     **/
+    int size();
+
+    /**
+     * @params [value 分片键的值，不为null]
+     * @desc 计算分片下标，范围是[0, size)
+     **/
+    int shard(Object value);
+
+    /**
+     * @params [index 分片下标]
+     * @desc 物理表名的后缀，默认是两位的下标，如 order_07
+     **/
+    default String suffix(int index) {
+        return String.format("%02d", index);
+    }
+
+    /**
+     * @params [size 分片总数]
+     * @desc 按哈希取模，整数直接取模，其他类型按hashCode取模
+     **/
+    static ShardingStrategy hash(int size) {
+        if (size < 1) {
+            throw new SqlException("size of shards must be greater than 0");
+        }
+        return new ShardingStrategy() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public int shard(Object value) {
+                if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                    return (int) Math.floorMod(((Number) value).longValue(), (long) size);
+                }
+                return Math.floorMod(value.hashCode(), size);
+            }
+        };
+    }
+
+    /**
+     * @params [bounds 递增的分界值]
+     * @desc 按范围分片，小于bounds[0]的在第0片，[bounds[i-1], bounds[i])的在第i片，不小于最后一个分界值的在最后一片
+     **/
+    static ShardingStrategy range(long... bounds) {
+        for (int i = 1; i < bounds.length; ++i) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new SqlException("bounds of range must be increasing");
+            }
+        }
+        long[] copy = bounds.clone();
+        return new ShardingStrategy() {
+            @Override
+            public int size() {
+                return copy.length + 1;
+            }
+
+            @Override
+            public int shard(Object value) {
+                if (!(value instanceof Number)) {
+                    throw new SqlException("the value of range shard key must be a number: " + value);
+                }
+                long v = ((Number) value).longValue();
+                int i = 0;
+                while (i < copy.length && v >= copy[i]) {
+                    ++i;
+                }
+                return i;
+            }
+        };
+    }
+
+    /**
+     * @desc 按月份分片，共12片，后缀是月份 01~12，支持Date、LocalDate、LocalDateTime等时间类型
+     **/
+    static ShardingStrategy month() {
+        return new ShardingStrategy() {
+            @Override
+            public int size() {
+                return 12;
+            }
+
+            @Override
+            public int shard(Object value) {
+                if (value instanceof java.sql.Date) {
+                    value = ((java.sql.Date) value).toLocalDate();
+                } else if (value instanceof Date) {
+                    value = ((Date) value).toInstant().atZone(ZoneId.systemDefault());
+                }
+                if (value instanceof TemporalAccessor && ((TemporalAccessor) value).isSupported(ChronoField.MONTH_OF_YEAR)) {
+                    return ((TemporalAccessor) value).get(ChronoField.MONTH_OF_YEAR) - 1;
+                }
+                throw new SqlException("the value of month shard key must be a date: " + value);
+            }
+
+            @Override
+            public String suffix(int index) {
+                return String.format("%02d", index + 1);
+            }
+        };
+    }
+}
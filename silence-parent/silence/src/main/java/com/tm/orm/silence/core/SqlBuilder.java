@@ -1,15 +1,18 @@
 package com.tm.orm.silence.core;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
 
-import org.apache.commons.jexl2.Expression;
-import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.tm.orm.silence.util.StringUtil.*;
 import static com.tm.orm.silence.util.ReflectUtil.*;
@@ -17,299 +20,530 @@ import static com.tm.orm.silence.util.ReflectUtil.*;
 /**
  * @author yudm
  * @date 2021/1/1 13:16
- * @desc 构建sql的类
+ * @desc 构建sql的类，构建结果是不可变的BoundSql/BatchSql，本身线程安全
  */
 public class SqlBuilder {
+    //最多缓存的动态sql模板数量
+    private static final int TEMPLATE_CACHE_SIZE = 2048;
+    //最多缓存的if条件表达式数量
+    private static final int CONDITION_CACHE_SIZE = 4096;
+    //最多缓存的实体类sql数量
+    private static final int ENTITY_SQL_CACHE_SIZE = 4096;
+    //最多缓存的count语句数量
+    private static final int COUNT_SQL_CACHE_SIZE = 1024;
+    //最多缓存的分片sql数量
+    private static final int SHARD_SQL_CACHE_SIZE = 4096;
+    //顶层的 select 和 from
+    private static final Pattern SELECT = Pattern.compile("^\\s*select\\s");
+    private static final Pattern FROM = Pattern.compile("\\bfrom\\b");
+    //顶层的 order by
+    private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b");
+    //顶层的 limit
+    private static final Pattern LIMIT = Pattern.compile("\\blimit\\b");
+    //顶层出现时不能直接改写成 select count(*) from 的关键字
+    private static final Pattern NOT_REWRITABLE = Pattern.compile("\\b(distinct|distinctrow|group\\s+by|having|union|limit|for\\s+update|lock\\s+in)\\b");
+    //查询列中的聚合函数，含有聚合函数时结果只有一行，不能改写
+    private static final Pattern AGGREGATE = Pattern.compile("\\b(count|sum|avg|min|max|group_concat|bit_and|bit_or|bit_xor|std|stddev|variance)\\s*\\(");
+    //排序键只允许是普通列名，避免拼接到sql中造成注入
+    private static final Pattern SORT_KEY = Pattern.compile("\\w+");
+    //order by之后结束排序的关键字
+    private static final Pattern ORDER_END = Pattern.compile("\\b(limit|for\\s+update|lock\\s+in)\\b");
+    //排序项，即 [别名.]列名 [asc|desc]
+    private static final Pattern ORDER_ITEM = Pattern.compile("(?:`?\\w+`?\\.)?`?(\\w+)`?(?:\\s+(asc|desc))?", Pattern.CASE_INSENSITIVE);
     //用于执行if条件表达式
     private final JexlEngine jexlEngine = new JexlEngine();
-    private final ThreadLocal<List<Object>> valuesThreadLocal;
-
-    SqlBuilder(ThreadLocal<List<Object>> valuesThreadLocal) {
-        this.valuesThreadLocal = valuesThreadLocal;
-    }
+    //编译后的动态sql模板，key为模板字符串
+    private final Cache<String, SqlTemplate> templateCache = CacheBuilder.newBuilder().maximumSize(TEMPLATE_CACHE_SIZE).recordStats().build();
+    //编译后的if条件表达式，key为条件表达式，不同模板中相同的条件共用一个
+    private final Cache<String, Condition> conditionCache = CacheBuilder.newBuilder().maximumSize(CONDITION_CACHE_SIZE).recordStats().build();
+    //查询sql->对应的count语句
+    private final Cache<String, String> countSqlCache = CacheBuilder.newBuilder().maximumSize(COUNT_SQL_CACHE_SIZE).build();
+    //实体类的sql，key为类、语句类型和涉及的字段
+    private final Cache<List<Object>, String> entitySqlCache = CacheBuilder.newBuilder().maximumSize(ENTITY_SQL_CACHE_SIZE).build();
+    //逻辑表名改写成物理表名后的sql，key为原sql、逻辑表名和物理表名
+    private final Cache<List<Object>, String> shardSqlCache = CacheBuilder.newBuilder().maximumSize(SHARD_SQL_CACHE_SIZE).build();
 
     /**
-     * @params [entity 实体对象, selective 是否过滤null值]
-     * @desc 构建插入sql
+     * @params [entity 实体对象]
+     * @desc 构建插入sql，null值会被过滤掉，相同非null字段组合的sql只构建一次
      */
-    public String buildInsertSql(Object entity) {
-        return doBuildInsertSql(entity.getClass().getSimpleName(), getFieldNames(getRealFields(entity)));
+    public BoundSql buildInsertSql(Object entity) {
+        EntityMeta meta = EntityMeta.of(entity.getClass());
+        List<FieldMeta> fields = getRealFields(entity, meta);
+        return new BoundSql(getInsertSql(meta, fields), getValues(entity, fields), getTypes(fields));
     }
 
     /**
-     * @params [entity 实体对象, selective 是否过滤null值]
-     * @desc 构建批量插入sql，并且将对应的值放入threadLocal
+     * @params [entities 实体对象列表]
+     * @desc 构建批量插入sql，插入的字段由第一个对象中非null的字段决定
      */
-    public String buildInsertListSql(List<?> entities) {
-        if (entities.size() < 1) {
-            throw new SqlException("entities can not be empty");
+    public BatchSql buildInsertListSql(List<?> entities) {
+        EntityMeta meta = getListMeta(entities);
+        List<FieldMeta> fields = getRealFields(entities.get(0), meta);
+        List<List<Object>> rows = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            rows.add(getValues(entity, fields));
         }
-        //获取满足条件的字段，并将对应字段的值加入到threadLocal
-        Object entity = entities.get(0);
-        if (null == entity) {
-            throw new SqlException("entity can not be empty");
-        }
-        List<Field> fields = getRealFields(entity);
-        List<Object> valuesList = new ArrayList<>();
-        //添加第一个对象中字段的值
-        valuesList.add(valuesThreadLocal.get());
-        //添加剩余对象中字段的值
-        for (int i = 1; i < entities.size(); ++i) {
-            valuesList.add(getValues(entities.get(i), fields));
-        }
-        valuesThreadLocal.set(valuesList);
-        return doBuildInsertSql(entity.getClass().getSimpleName(), getFieldNames(fields));
+        return new BatchSql(getInsertSql(meta, fields), rows, getTypes(fields));
+    }
 
+    /**
+     * @params [entity 实体对象]
+     * @desc 构建通过主键更新sql，null值会被过滤掉
+     */
+    public BoundSql buildUpdateByIdSql(Object entity) {
+        EntityMeta meta = EntityMeta.of(entity.getClass());
+        FieldMeta idField = meta.getIdField();
+        Object id = getIdValue(entity, idField);
+        List<FieldMeta> fields = getUpdateFields(entity, meta);
+        List<Object> values = getValues(entity, fields);
+        List<Class<?>> types = getTypes(fields);
+        values.add(id);
+        types.add(idField.getType());
+        return new BoundSql(getUpdateSql(meta, fields), values, types);
     }
 
     /**
-     * @params [entity 实体对象, selective 是否过滤null值]
-     * @desc 构建通过主键更新sql
+     * @params [entities 实体对象列表]
+     * @desc 构建批量通过主键更新的sql，按非null字段的组合分组，每组一条sql
      */
-    public String buildUpdateByIdSql(Object entity) {
-        List<Field> fields = getRealFields(entity);
-        StringBuilder sql = new StringBuilder("update ").append(toUnderscore(entity.getClass().getSimpleName())).append(" set ");
-        for (String name : getFieldNames(fields)) {
-            sql.append("`");
-            sql.append(toUnderscore(name)).append("` = ?, ");
+    public List<BatchSql> buildUpdateListByIdSql(List<?> entities) {
+        EntityMeta meta = getListMeta(entities);
+        FieldMeta idField = meta.getIdField();
+        //需要更新的字段->每行的参数列表
+        Map<List<FieldMeta>, List<List<Object>>> groups = new LinkedHashMap<>();
+        for (Object entity : entities) {
+            Object id = getIdValue(entity, idField);
+            List<FieldMeta> fields = getUpdateFields(entity, meta);
+            List<Object> values = getValues(entity, fields);
+            values.add(id);
+            groups.computeIfAbsent(fields, k -> new ArrayList<>()).add(values);
+        }
+        List<BatchSql> batches = new ArrayList<>(groups.size());
+        for (Map.Entry<List<FieldMeta>, List<List<Object>>> group : groups.entrySet()) {
+            List<Class<?>> types = getTypes(group.getKey());
+            types.add(idField.getType());
+            batches.add(new BatchSql(getUpdateSql(meta, group.getKey()), group.getValue(), types));
         }
-        //去掉最后的逗号
-        sql.deleteCharAt(sql.length() - 2);
-        Field field = fields.get(0);
-        valuesThreadLocal.get().add(getFieldValue(entity, field));
-        sql.append("where `").append(toUnderscore(field.getName())).append("` = ?");
-        return sql.toString();
+        return batches;
     }
 
     /**
      * @params [entity 实体对象]
      * @desc 构建通过主键删除sql
      */
-    public String buildDeleteByIdSql(Object entity) {
-        Class<?> clazz = entity.getClass();
-        StringBuilder sql = new StringBuilder("delete from ").append(toUnderscore(clazz.getSimpleName()));
-        Field field = getIdField(clazz);
-        valuesThreadLocal.get().add(getFieldValue(entity, field));
-        sql.append("where `").append(toUnderscore(field.getName())).append("` = ?");
-        return sql.toString();
+    public BoundSql buildDeleteByIdSql(Object entity) {
+        EntityMeta meta = EntityMeta.of(entity.getClass());
+        FieldMeta idField = meta.getIdField();
+        Object id = getIdValue(entity, idField);
+        return new BoundSql(getEntitySql(meta, "deleteById", Collections.emptyList(), () ->
+                "delete from " + meta.getTableName() + " where `" + idField.getColumn() + "` = ?"),
+                Collections.singletonList(id), Collections.singletonList(idField.getType()));
+    }
+
+    /**
+     * @params [entities 实体对象列表, size 每条语句最多的主键数量]
+     * @desc 构建通过主键列表删除的sql，即 where `id` in (?,?...)，每size个主键一条语句
+     */
+    public List<BoundSql> buildDeleteListByIdSql(List<?> entities, int size) {
+        EntityMeta meta = getListMeta(entities);
+        FieldMeta idField = meta.getIdField();
+        List<Object> ids = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            ids.add(getIdValue(entity, idField));
+        }
+        List<BoundSql> sqls = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += size) {
+            List<Object> chunk = ids.subList(from, Math.min(from + size, ids.size()));
+            StringBuilder sql = new StringBuilder("delete from ").append(meta.getTableName())
+                    .append(" where `").append(idField.getColumn()).append("` in (");
+            for (int i = 0; i < chunk.size(); ++i) {
+                sql.append("?,");
+            }
+            //去掉最后一个“,”号
+            sql.setCharAt(sql.length() - 1, ')');
+            sqls.add(new BoundSql(sql.toString(), chunk, Collections.nCopies(chunk.size(), idField.getType())));
+        }
+        return sqls;
     }
 
     /**
      * @params [clazz 实体类的字节码，用于映射表和获取主键名, id 主键值]
      * @desc 构建通过主键查询sql
      **/
-    public String buildSelectByIdSql(Class<?> clazz, Object id) {
-        StringBuilder sql = new StringBuilder("select * from ").append(toUnderscore(clazz.getSimpleName()));
-        Field field = getIdField(clazz);
-        valuesThreadLocal.get().add(id);
-        sql.append("where `").append(toUnderscore(field.getName())).append("` = ?");
-        return sql.toString();
+    public BoundSql buildSelectByIdSql(Class<?> clazz, Object id) {
+        EntityMeta meta = EntityMeta.of(clazz);
+        FieldMeta idField = meta.getIdField();
+        return new BoundSql(getEntitySql(meta, "selectById", Collections.emptyList(), () ->
+                "select * from " + meta.getTableName() + " where `" + idField.getColumn() + "` = ?"),
+                Collections.singletonList(id), Collections.singletonList(idField.getType()));
+    }
+
+    /**
+     * @params [sql 不含动态语句的查询sql]
+     * @desc 构建查询总数的sql。去掉顶层的order by，能安全改写时把查询列替换成count(*)，
+     * 否则包一层子查询，改写不改变占位符的顺序，同一条sql只解析一次
+     **/
+    public BoundSql buildCountSql(BoundSql bound) {
+        String countSql = countSqlCache.getIfPresent(bound.getSql());
+        if (null == countSql) {
+            countSql = doBuildCountSql(bound.getSql());
+            countSqlCache.put(bound.getSql(), countSql);
+        }
+        return bound.wrap(countSql);
+    }
+
+    /**
+     * @params [bound 不含动态语句的查询sql, offset 偏移量, size 每页大小]
+     * @desc 构建按页号分页的sql
+     **/
+    public BoundSql buildPageSql(BoundSql bound, int offset, int size) {
+        return bound.wrap(bound.getSql() + " limit ?,?", offset, size);
+    }
+
+    /**
+     * @params [sql sql语句, logicalTable 逻辑表名, physicalTable 物理表名]
+     * @desc 把from、join、into、update后面的逻辑表名替换成分片的物理表名
+     **/
+    public String buildShardSql(String sql, String logicalTable, String physicalTable) {
+        List<Object> key = Arrays.asList(sql, logicalTable, physicalTable);
+        String shardSql = shardSqlCache.getIfPresent(key);
+        if (null == shardSql) {
+            Pattern table = Pattern.compile("(\\b(?:from|join|into|update)\\s+)`?" + Pattern.quote(logicalTable) + "`?(?![\\w.])", Pattern.CASE_INSENSITIVE);
+            shardSql = table.matcher(sql).replaceAll("$1" + Matcher.quoteReplacement(physicalTable));
+            shardSqlCache.put(key, shardSql);
+        }
+        return shardSql;
+    }
+
+    /**
+     * @params [sql 查询语句]
+     * @desc 解析顶层order by中的排序项，返回 [列名, asc|desc]，用于合并多个分片的有序结果。
+     * 没有order by或者排序项不是普通列时返回空列表
+     **/
+    public List<String[]> getOrderBy(String sql) {
+        String masked = maskNested(sql);
+        Matcher order = ORDER_BY.matcher(masked);
+        if (!order.find()) {
+            return Collections.emptyList();
+        }
+        Matcher end = ORDER_END.matcher(masked);
+        int stop = end.find(order.end()) ? end.start() : sql.length();
+        List<String[]> items = new ArrayList<>();
+        int start = order.end();
+        while (start < stop) {
+            int comma = masked.indexOf(',', start);
+            if (comma < 0 || comma > stop) {
+                comma = stop;
+            }
+            Matcher item = ORDER_ITEM.matcher(sql.substring(start, comma).trim());
+            if (!item.matches()) {
+                return Collections.emptyList();
+            }
+            items.add(new String[]{item.group(1), null == item.group(2) ? "asc" : item.group(2).toLowerCase()});
+            start = comma + 1;
+        }
+        return items;
+    }
+
+    /**
+     * @params [bound 查询sql, sortKeys 排序键, lastKeys 上一页最后一行排序键的值，为null表示第一页, desc 是否倒序, limit 查询的行数]
+     * @desc 构建按排序键分页的sql，即 where (k1,k2) > (?,?) order by k1,k2 limit ?，
+     * 外层的条件会被合并到子查询中，可以直接使用排序键上的索引，查询代价与翻到第几页无关
+     **/
+    public BoundSql buildKeysetSql(BoundSql bound, List<String> sortKeys, Object[] lastKeys, boolean desc, int limit) {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder orders = new StringBuilder();
+        StringBuilder marks = new StringBuilder();
+        for (String key : sortKeys) {
+            if (!SORT_KEY.matcher(key).matches()) {
+                throw new SqlException("illegal sort key: " + key);
+            }
+            columns.append('`').append(key).append("`,");
+            orders.append('`').append(key).append('`').append(desc ? " desc," : ",");
+            marks.append("?,");
+        }
+        //去掉最后一个“,”号
+        columns.deleteCharAt(columns.length() - 1);
+        orders.deleteCharAt(orders.length() - 1);
+        marks.deleteCharAt(marks.length() - 1);
+        StringBuilder keysetSql = new StringBuilder("select * from (").append(bound.getSql()).append(") silence_keyset");
+        List<Object> extra = new ArrayList<>(sortKeys.size() + 1);
+        if (null != lastKeys) {
+            keysetSql.append(" where (").append(columns).append(desc ? ") < (" : ") > (").append(marks).append(")");
+            extra.addAll(Arrays.asList(lastKeys));
+        }
+        extra.add(limit);
+        keysetSql.append(" order by ").append(orders).append(" limit ?");
+        return bound.wrap(keysetSql.toString(), extra.toArray());
     }
 
     /**
      * @params [sql 动态sql语句, data 参数]
      * @desc 根据动态sql和参数构建出最终的sql
      **/
-    public String build(String sql, Object data) {
-        Map<String, Object> param = toMap(data, extractAll(sql, PARAM));
-        //用于查找动态语句块的开始和结束位置
-        return doBuild(sql, param);
+    public BoundSql build(String sql, Object data) {
+        SqlTemplate template = getTemplate(sql);
+        Map<String, Object> param = toMap(data, template.getKeys());
+        List<Object> values = new ArrayList<>();
+        String realSql = template.apply(param, values);
+        return BoundSql.of(realSql, values);
+    }
+
+    /**
+     * @params [sql 动态sql语句]
+     * @desc 获取编译后的模板，同一个模板只会被解析一次
+     **/
+    private SqlTemplate getTemplate(String sql) {
+        SqlTemplate template = templateCache.getIfPresent(sql);
+        if (null == template) {
+            template = SqlTemplate.compile(sql, this::getCondition);
+            templateCache.put(sql, template);
+        }
+        return template;
+    }
+
+    /**
+     * @params [condition if条件表达式]
+     * @desc 获取编译后的条件表达式，同一个条件只会被编译一次
+     **/
+    private Condition getCondition(String condition) {
+        Condition c = conditionCache.getIfPresent(condition);
+        if (null == c) {
+            c = Condition.compile(condition, jexlEngine);
+            conditionCache.put(condition, c);
+        }
+        return c;
+    }
+
+    /**
+     * @desc if条件表达式缓存的命中统计
+     **/
+    public CacheStats getConditionCacheStats() {
+        return conditionCache.stats();
     }
 
     /**
-     * @params [tableName 表名, names 字段名]
-     * @desc 真正执行构建插入sql
+     * @desc 动态sql模板缓存的命中统计
+     **/
+    public CacheStats getTemplateCacheStats() {
+        return templateCache.stats();
+    }
+
+    /**
+     * @params [sql 单行插入sql, rows 行数]
+     * @desc 将单行插入sql扩展为 values (...),(...) 形式的多行插入sql
      */
-    private String doBuildInsertSql(String tableName, List<String> names) {
-        StringBuilder sql = new StringBuilder("insert into ").append(toUnderscore(tableName)).append(" (");
-        for (String name : names) {
-            sql.append("`");
-            sql.append(toUnderscore(name)).append("`,");
+    public String buildMultiValuesSql(String sql, int rows) {
+        String row = sql.substring(sql.lastIndexOf(" values ") + " values ".length());
+        StringBuilder builder = new StringBuilder(sql.length() + (row.length() + 1) * (rows - 1)).append(sql);
+        for (int i = 1; i < rows; ++i) {
+            builder.append(',').append(row);
         }
-        //去掉最后一个“,”号
-        sql.deleteCharAt(sql.length() - 1);
-        sql.append(") values (");
-        for (int i = 0; i < names.size(); ++i) {
-            sql.append("?,");
+        return builder.toString();
+    }
+
+    /**
+     * @params [meta 实体类的元数据, fields 插入的字段]
+     * @desc 获取插入sql
+     */
+    private String getInsertSql(EntityMeta meta, List<FieldMeta> fields) {
+        return getEntitySql(meta, "insert", fields, () -> {
+            StringBuilder sql = new StringBuilder("insert into ").append(meta.getTableName()).append(" (");
+            for (FieldMeta field : fields) {
+                sql.append("`");
+                sql.append(field.getColumn()).append("`,");
+            }
+            //去掉最后一个“,”号
+            sql.deleteCharAt(sql.length() - 1);
+            sql.append(") values (");
+            for (int i = 0; i < fields.size(); ++i) {
+                sql.append("?,");
+            }
+            //去掉最后一个“,”号
+            sql.deleteCharAt(sql.length() - 1);
+            sql.append(")");
+            return sql.toString();
+        });
+    }
+
+    /**
+     * @params [meta 实体类的元数据, fields 需要更新的字段]
+     * @desc 获取通过主键更新的sql
+     */
+    private String getUpdateSql(EntityMeta meta, List<FieldMeta> fields) {
+        return getEntitySql(meta, "updateById", fields, () -> {
+            StringBuilder sql = new StringBuilder("update ").append(meta.getTableName()).append(" set ");
+            for (FieldMeta field : fields) {
+                sql.append("`").append(field.getColumn()).append("` = ?, ");
+            }
+            //去掉最后的逗号
+            sql.deleteCharAt(sql.length() - 2);
+            sql.append("where `").append(meta.getIdField().getColumn()).append("` = ?");
+            return sql.toString();
+        });
+    }
+
+    /**
+     * @params [meta 实体类的元数据, type 语句类型, fields 涉及的字段, builder 构建sql的函数]
+     * @desc 获取实体类的sql，同一个类、语句类型和字段组合只构建一次
+     */
+    private String getEntitySql(EntityMeta meta, String type, List<FieldMeta> fields, Supplier<String> builder) {
+        List<Object> key = Arrays.asList(meta.getClazz(), type, fields);
+        String sql = entitySqlCache.getIfPresent(key);
+        if (null == sql) {
+            sql = builder.get();
+            entitySqlCache.put(key, sql);
         }
-        //去掉最后一个“,”号
-        sql.deleteCharAt(sql.length() - 1);
-        sql.append(")");
-        return sql.toString();
+        return sql;
     }
 
     /**
-     * @params [sql 动态sql语句, param map参数]
-     * @desc 执行根据动态sql和参数构建出最终的sql
+     * @params [sql 不含动态语句的查询sql]
+     * @desc 构建查询总数的sql
      **/
-    private String doBuild(String sql, Map<String, Object> param) {
-        ArrayList<Position> positions = getPositions(sql, DYNAMIC_LABEL);
-        if (positions.size() == 0) {//不存在动态语句
-            return paramBlock(sql, param);
-        } else {
-            //截取第一个非动态语句
-            StringBuilder sb = new StringBuilder(paramBlock(sql.substring(0, positions.get(0).getBegin()), param));
-            for (int i = 0; i < positions.size(); ++i) {
-                Position position = positions.get(i);
-                //截取第i个动态语句
-                String ds = sql.substring(position.getBegin(), position.getEnd() + 1);
-                //如果是if语句块
-                if (ds.startsWith("&[")) {
-                    sb.append(ifBlock(ds, param));
-                }
-                //如果是where语句块
-                if (ds.startsWith("@[")) {
-                    sb.append(whereBlock(ds, param));
-                }
-                //如果是foreach语句块
-                if (ds.startsWith("%[")) {
-                    sb.append(foreachBlock(ds, param));
-                }
-                if (i < positions.size() - 1) {
-                    //截取动态sql之间的非动态sql
-                    sb.append(sql, position.getEnd() + 1, positions.get(i + 1).getBegin());
+    private String doBuildCountSql(String sql) {
+        //括号和引号中的内容替换成空格，只在顶层查找关键字，下标与原sql一致
+        String masked = maskNested(sql);
+        String body = sql;
+        //去掉order by，含有limit时order by会影响结果，order by中含有占位符时保留，避免参数错位
+        Matcher order = ORDER_BY.matcher(masked);
+        if (!LIMIT.matcher(masked).find() && order.find() && sql.indexOf('?', order.start()) < 0) {
+            body = sql.substring(0, order.start());
+            masked = masked.substring(0, order.start());
+        }
+        if (!NOT_REWRITABLE.matcher(masked).find()) {
+            //把查询列替换成count(*)，查询列中含有占位符或聚合函数时不替换
+            Matcher select = SELECT.matcher(masked);
+            Matcher from = FROM.matcher(masked);
+            if (select.find() && from.find(select.end())) {
+                String columns = body.substring(select.end(), from.start()).toLowerCase();
+                if (columns.indexOf('?') < 0 && !AGGREGATE.matcher(columns).find()) {
+                    return "select count(*) " + body.substring(from.start());
                 }
             }
-            //截取最后的非动态语句
-            sb.append(sql, positions.get(positions.size() - 1).getEnd() + 1, sql.length());
-            return sb.toString();
         }
+        return "select count(*) from (" + body + ") silence_count";
     }
 
     /**
-     * @params [sql 动态sql语句, param map参数]
-     * @desc 解析包含参数的语句块
+     * @params [sql sql语句]
+     * @desc 将括号和引号中的内容替换成空格并转成小写，用于查找顶层的关键字
      **/
-    private String paramBlock(String sql, Map<String, Object> param) {
-        if (sql.contains("#{")) {
-            List<String> ks = extractAll(sql, PRE_PARAM);
-            for (String k : ks) {
-                //加入到sql参数列表中
-                valuesThreadLocal.get().add(getValueFromMap(param, replaceAll(k, PRE_PARAM_LABEL, "").trim()));
-            }
-            sql = replaceAll(sql, PRE_PARAM, "?");
-        } else if (sql.contains("${")) {
-            List<String> ks = extractAll(sql, NORMAL_PARAM);
-            for (String t : ks) {
-                Object obj = getValueFromMap(param, replaceAll(t, NORMAL_PARAM_LABEL, "").trim());
-                if (obj instanceof String) {
-                    sql = sql.replace(t, (String) obj);
-                } else {
-                    sql = sql.replace(t, String.valueOf(obj));
+    private static String maskNested(String sql) {
+        char[] chars = sql.toCharArray();
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < chars.length; ++i) {
+            char c = chars[i];
+            if (0 != quote) {
+                if ('\\' == c && i + 1 < chars.length) {
+                    chars[i++] = ' ';
+                } else if (quote == c) {
+                    quote = 0;
                 }
+                chars[i] = ' ';
+            } else if ('\'' == c || '"' == c || '`' == c) {
+                quote = c;
+                chars[i] = ' ';
+            } else if ('(' == c) {
+                ++depth;
+                chars[i] = ' ';
+            } else if (')' == c) {
+                --depth;
+                chars[i] = ' ';
+            } else if (depth > 0) {
+                chars[i] = ' ';
+            } else {
+                chars[i] = Character.toLowerCase(c);
             }
         }
-        return sql;
+        return new String(chars);
     }
 
     /**
-     * @params [sql 动态sql语句, param map参数]
-     * @desc 解析if语句块
+     * @params [entities 实体对象列表]
+     * @desc 获取实体对象列表的元数据，列表不能为空，并且所有对象必须是同一个类型
      **/
-    private String ifBlock(String ds, Map<String, Object> param) {
-        //if中的条件表达式
-        String condition = extractFirst(ds, IF);
-        if (null == condition || condition.isEmpty()) {
-            throw new SqlException("sql statement error: there is no conditions in &[]");
+    EntityMeta getListMeta(List<?> entities) {
+        if (entities.isEmpty()) {
+            throw new SqlException("entities can not be empty");
         }
-        //截取真正的条件表达式
-        condition = replaceAll(replaceAll(condition, IF_LABEL, ""), SINGLY_QUOTED, "\"");
-        Expression expression = jexlEngine.createExpression(condition);
-        JexlContext jexlContext = new MapContext();
-        //条件表达式中的变量名
-        String[] ks = split(condition, LOGIC_LABEL);
-        for (String k : ks) {
-            //真正的变量名字
-            k = split(k, OPERATOR)[0].trim();
-            jexlContext.set(k, getValueFromMap(param, k));
+        Object first = entities.get(0);
+        if (null == first) {
+            throw new SqlException("entity can not be null");
         }
-        //如果表达式成立
-        if ((boolean) expression.evaluate(jexlContext)) {
-            return doBuild(replaceAll(extractFirst(ds, IF_FOREACH_CONTENT), IF_FOREACH_LABEL, ""), param);
+        for (Object entity : entities) {
+            if (null == entity) {
+                throw new SqlException("entity can not be null");
+            }
+            if (entity.getClass() != first.getClass()) {
+                throw new SqlException("entities must be the same type");
+            }
         }
-        return "";
+        return EntityMeta.of(first.getClass());
     }
 
     /**
-     * @params [sql 动态sql语句, param map参数]
-     * @desc 解析where语句块
+     * @params [entity 实体类, meta 实体类的元数据]
+     * @desc 获取非null的字段列表
      **/
-    private String whereBlock(String ds, Map<String, Object> param) {
-        String w = doBuild(ds.substring(2, ds.length() - 1), param);
-        if (w.isEmpty()) {
-            return "";
+    private List<FieldMeta> getRealFields(Object entity, EntityMeta meta) {
+        if (meta.getFields().isEmpty()) {
+            throw new SqlException("there is no field in data");
+        }
+        List<FieldMeta> realFields = new ArrayList<>();
+        for (FieldMeta field : meta.getFields()) {
+            if (null != field.get(entity)) {
+                realFields.add(field);
+            }
         }
-        //把多余的and或or去掉
-        w = replaceFirst(w, SQL_LOGIC_LABEL, " ");
-        return "where" + w;
+        if (realFields.isEmpty()) {
+            throw new SqlException("all fields of entity are null");
+        }
+        return realFields;
     }
 
     /**
-     * @params [sql 动态sql语句, param map参数]
-     * @desc 解析foreach语句块
+     * @params [entity 实体类, meta 实体类的元数据]
+     * @desc 获取通过主键更新时需要更新的字段，即除主键外非null的字段
      **/
-    private String foreachBlock(String ds, Map<String, Object> param) {
-        //获取属性
-        String attribute = replaceAll(extractFirst(ds, FOREACH_ATTR), FOREACH_LABEL, "");
-        String[] attributes = attribute.split(",");
-        //将属性和属性的值转化成map
-        Map<String, String> attributeMap = new HashMap<>(5);
-        for (String a : attributes) {
-            String[] kv = a.split("=");
-            if (kv.length < 2) {
-                throw new SqlException("bad foreach statement");
+    private List<FieldMeta> getUpdateFields(Object entity, EntityMeta meta) {
+        FieldMeta idField = meta.getIdField();
+        List<FieldMeta> fields = new ArrayList<>();
+        for (FieldMeta field : meta.getFields()) {
+            //跳过主键和null值
+            if (field != idField && null != field.get(entity)) {
+                fields.add(field);
             }
-            attributeMap.put(kv[0].trim(), kv[1].trim());
-        }
-        //o:开始符号，c:结束符号，s:分隔符，i:每一项的名字，v:集合变量的名字
-        if (!attributeMap.keySet().containsAll(Arrays.asList("o", "c", "s", "i", "v"))) {
-            throw new SqlException("Attribute [o,c,s,i,v] is necessary");
-        }
-        //获取集合
-        String k = attributeMap.get("v");
-        Object v = getValueFromMap(param, k);
-        if (!(v instanceof Collection<?>)) {
-            throw new SqlException(k + " is not a collection");
         }
-        //开始拼接foreach语句块
-        StringBuilder sb = new StringBuilder();
-        sb.append(attributeMap.get("o"));
-        for (Object obj : (Collection<?>) v) {
-            param.put(attributeMap.get("i"), obj);
-            sb.append(doBuild(replaceAll(extractFirst(ds, IF_FOREACH_CONTENT), IF_FOREACH_LABEL, ""), param));
-            sb.append(attributeMap.get("s"));
+        if (fields.isEmpty()) {
+            throw new SqlException("there is no field to update");
         }
-        sb.deleteCharAt(sb.length() - 1);
-        sb.append(attributeMap.get("c"));
-        sb.append(" ");
-        return sb.toString();
+        return fields;
     }
 
     /**
-     * @params [entity 实体类]
-     * @desc 获取非静态、非null的字段列表
+     * @params [fields 字段]
+     * @desc 获取字段声明的类型，用于null值的绑定
      **/
-    private List<Field> getRealFields(Object entity) {
-        Class<?> clazz = entity.getClass();
-        Field[] fields = clazz.getDeclaredFields();
-        if (fields.length < 1) {
-            throw new SqlException("there is no field in data");
+    private static List<Class<?>> getTypes(List<FieldMeta> fields) {
+        List<Class<?>> types = new ArrayList<>(fields.size() + 1);
+        for (FieldMeta field : fields) {
+            types.add(field.getType());
         }
-        List<Field> realFields = new ArrayList<>();
-        List<Object> values = new ArrayList<>();
-        for (Field field : fields) {
-            //排除静态成员
-            if (Modifier.isStatic(field.getModifiers())) {
-                continue;
-            }
-            Object obj = getFieldValue(entity, field);
-            if (null == obj) {
-                continue;
-            }
-            values.add(obj);
-            realFields.add(field);
+        return types;
+    }
+
+    /**
+     * @params [entity 实体对象, idField 主键字段]
+     * @desc 获取主键的值，主键不能为null
+     **/
+    private Object getIdValue(Object entity, FieldMeta idField) {
+        Object id = idField.get(entity);
+        if (null == id) {
+            throw new SqlException("the value of primary key can not be null");
         }
-        valuesThreadLocal.set(values);
-        return realFields;
+        return id;
     }
 }
@@ -1,20 +1,36 @@
 package com.tm.orm.silence.core;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.tm.orm.silence.exception.SqlException;
-import com.tm.orm.silence.function.BiThrowConsumer;
+import com.tm.orm.silence.function.BiThrowFunction;
 import com.tm.orm.silence.function.ThrowFunction;
 import com.tm.orm.silence.function.ThrowConsumer;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
+import com.tm.orm.silence.util.ExecutorUtil;
+import com.tm.orm.silence.util.JdbcType;
+import com.tm.orm.silence.util.MappingPlan;
 import com.tm.orm.silence.util.ResultSetUtil;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author yudm
@@ -25,62 +41,199 @@ import java.util.logging.Logger;
 public class SqlExecutor {
     @Resource
     private DataSource dataSource;
-    //存放参数列表
-    private final ThreadLocal<List<Object>> valuesThreadLocal = new ThreadLocal<>();
     //sql语句构建器
-    private final SqlBuilder sqlBuilder = new SqlBuilder(valuesThreadLocal);
+    private final SqlBuilder sqlBuilder = new SqlBuilder();
+    //流式查询每次从数据库获取的行数，0表示自动：mysql使用Integer.MIN_VALUE逐行流式读取，其他数据库使用DEFAULT_FETCH_SIZE
+    private int fetchSize;
+    //非mysql数据库流式查询默认每次获取的行数
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    //批量插入时每批的行数
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    //批量插入是否拼接成 values (...),(...) 的多行语句，驱动已开启rewriteBatchedStatements时不需要
+    private boolean multiValues;
+    //数据源->驱动是否会把批量语句改写成多行语句，即连接url中含有rewriteBatchedStatements=true。
+    //从库、命名数据源和分片数据源的url可能不同，每个数据源第一次批量插入时分别检测
+    private final ConcurrentMap<DataSource, Boolean> rewriteBatched = new ConcurrentHashMap<>();
+    //默认每批的行数
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    //单条语句最多的占位符数量，mysql协议限制为65535
+    private static final int MAX_PLACEHOLDERS = 65535;
+    //每个事务连接上默认最多缓存的语句数量
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    //count查询结果默认的缓存时间，秒
+    private static final int DEFAULT_COUNT_CACHE_SECONDS = 60;
+    //最多缓存的count查询结果数量
+    private static final int COUNT_CACHE_SIZE = 4096;
+    //CountMode.CACHED时count查询的结果，key为count语句和参数列表
+    private volatile Cache<BoundSql, Integer> countCache = buildCountCache(DEFAULT_COUNT_CACHE_SECONDS);
+    //并行分页默认的线程数
+    private static final int DEFAULT_PAGE_THREADS = 8;
+    //并行分页的线程数
+    private int pageThreads = DEFAULT_PAGE_THREADS;
+    //并行分页时执行count查询的线程池
+    private volatile ExecutorService pageExecutor;
+    //异步执行的线程数，0表示与连接池的最大连接数相同
+    private int asyncThreads;
+    //异步执行是否使用虚拟线程，需要java21+，不支持时使用普通线程
+    private boolean virtualThreads;
+    //异步执行的线程池
+    private volatile ExecutorService asyncExecutor;
+    //并行查询所有分片的线程池，与异步执行的线程池分开，避免异步任务占满线程后等待排在自己后面的分片任务
+    private volatile ExecutorService shardExecutor;
+    //当前线程是否是分片查询的工作线程，是时不再提交任务而是直接执行
+    private static final ThreadLocal<Boolean> IN_SHARD_WORKER = new ThreadLocal<>();
+    //事务内的语句缓存
+    private volatile StatementCache statementCache = new StatementCache(DEFAULT_STATEMENT_CACHE_SIZE);
+    //selectById的二级缓存
+    private final EntityCache entityCache = new EntityCache();
+    //查询结果缓存默认的最大字节数
+    private static final long DEFAULT_QUERY_CACHE_BYTES = 64L << 20;
+    //查询结果缓存默认的缓存时间，秒
+    private static final int DEFAULT_QUERY_CACHE_SECONDS = 60;
+    //查询结果缓存的最大字节数
+    private long queryCacheBytes = DEFAULT_QUERY_CACHE_BYTES;
+    //查询结果缓存的缓存时间，秒
+    private int queryCacheSeconds = DEFAULT_QUERY_CACHE_SECONDS;
+    //查询结果缓存
+    private final QueryCache queryCache = new QueryCache(DEFAULT_QUERY_CACHE_BYTES, DEFAULT_QUERY_CACHE_SECONDS);
+    //数据源路由表，默认只有一个数据源并且只有主库
+    private final RouterRegistry routers = new RouterRegistry();
+    //实体类->分片规则
+    private final Map<Class<?>, ShardRule> shardRules = new ConcurrentHashMap<>();
+    //不分片时使用的分片对象
+    private final Shard noShard = new Shard(null, 0);
+    //主键生成器，只用于主键标注了@GeneratedId的实体
+    private volatile IdGenerator idGenerator;
 
     @PostConstruct
     public void init() {
         if (null == dataSource) {
             throw new SqlException("Datasource is not initialized");
         }
+        if (null == routers.getDefault()) {
+            routers.setDefault(new DataSourceRouter(dataSource));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        routers.close();
+        if (null != pageExecutor) {
+            pageExecutor.shutdown();
+        }
+        if (null != asyncExecutor) {
+            asyncExecutor.shutdown();
+        }
+        if (null != shardExecutor) {
+            shardExecutor.shutdown();
+        }
     }
 
     /**
      * @params [entity 实体对象]
-     * @desc 插入单条数据，null会被过滤掉
+     * @desc 插入单条数据，null会被过滤掉，主键标注了@GeneratedId时先分配主键
      */
     public int insert(Object entity) {
-        return doUpdate(sqlBuilder.buildInsertSql(entity), this::fillPst);
+        assignId(entity);
+        int rows = inShard(entity, shard -> doUpdate(shard.apply(sqlBuilder.buildInsertSql(entity))));
+        afterWrite(Collections.singletonList(entity));
+        return rows;
     }
 
     /**
      * @params [entity 实体对象]
-     * @desc 插入单条数据，null会被过滤掉，并且回显主键
+     * @desc 插入单条数据，null会被过滤掉，并且回显主键。主键标注了@GeneratedId时由主键生成器分配，不需要回显
      */
     public int insertAndEchoId(Object entity) {
-        return doUpdateAndEchoId(sqlBuilder.buildInsertSql(entity), this::fillPst, r -> ResultSetUtil.echoId(r, entity));
+        if (assignId(entity)) {
+            return insert(entity);
+        }
+        int rows = inShard(entity, shard -> doUpdateAndEchoId(shard.apply(sqlBuilder.buildInsertSql(entity)), r -> ResultSetUtil.echoId(r, entity)));
+        afterWrite(Collections.singletonList(entity));
+        return rows;
     }
 
     /**
      * @params [entities 实体对象列表]
-     * @desc 批量插入，null会被过滤掉
+     * @desc 批量插入，null会被过滤掉，主键标注了@GeneratedId时先为所有主键为空的对象分配主键
      */
     public int insertList(List<?> entities) {
-        return doUpdate(sqlBuilder.buildInsertListSql(entities), this::fillPstList);
+        assignIds(entities);
+        int rows = inShards(entities, (group, shard) -> doBatch(shard.apply(sqlBuilder.buildInsertListSql(group)), null));
+        afterWrite(entities);
+        return rows;
     }
 
     /**
      * @params [entities 实体对象列表]
-     * @desc 批量插入，null会被过滤掉，并且回显主键
+     * @desc 批量插入，null会被过滤掉，并且回显主键。主键标注了@GeneratedId时由主键生成器分配，不需要回显，
+     * 也就不依赖getGeneratedKeys返回的顺序
      */
-    public int insertListAndEchoId(List<Object> entities) {
-        return doUpdateAndEchoId(sqlBuilder.buildInsertListSql(entities), this::fillPstList, r -> ResultSetUtil.echoIdList(r, entities));
+    public int insertListAndEchoId(List<?> entities) {
+        if (assignIds(entities)) {
+            return insertList(entities);
+        }
+        int rows = inShards(entities, (group, shard) -> doBatch(shard.apply(sqlBuilder.buildInsertListSql(group)), group));
+        afterWrite(entities);
+        return rows;
     }
 
     /**
      * @params [entity 实体对象, selective 是否过滤掉null]
      * @desc 根据主键更新
      */
-    public int updateById(Object entity) { return doUpdate(sqlBuilder.buildUpdateByIdSql(entity), this::fillPst);}
+    public int updateById(Object entity) {
+        int rows = inShard(entity, shard -> doUpdate(shard.apply(sqlBuilder.buildUpdateByIdSql(entity))));
+        afterWrite(Collections.singletonList(entity));
+        return rows;
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 根据主键批量更新，null会被过滤掉，非null字段相同的对象共用一条语句分批执行
+     */
+    public int updateListById(List<?> entities) {
+        int rows = inShards(entities, (group, shard) -> {
+            List<BatchSql> batches = sqlBuilder.buildUpdateListByIdSql(group);
+            return doInConnection(false, con -> {
+                int count = 0;
+                for (BatchSql batch : batches) {
+                    count += executeBatch(con, shard.apply(batch), null, false);
+                }
+                return count;
+            });
+        });
+        afterWrite(entities);
+        return rows;
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 根据主键批量删除，每batchSize个主键合并为一条 where `id` in (...) 语句
+     */
+    public int deleteListById(List<?> entities) {
+        int rows = inShards(entities, (group, shard) -> {
+            List<BoundSql> sqls = sqlBuilder.buildDeleteListByIdSql(group, Math.min(batchSize, MAX_PLACEHOLDERS));
+            return doInConnection(false, con -> {
+                int count = 0;
+                for (BoundSql bound : sqls) {
+                    count += executeUpdate(con, shard.apply(bound));
+                }
+                return count;
+            });
+        });
+        afterWrite(entities);
+        return rows;
+    }
 
     /**
      * @params [entities 实体对象]
      * @desc 根据主键删除
      */
     public int deleteById(Object entity) {
-        return doUpdate(sqlBuilder.buildDeleteByIdSql(entity), this::fillPst);
+        int rows = inShard(entity, shard -> doUpdate(shard.apply(sqlBuilder.buildDeleteByIdSql(entity))));
+        afterWrite(Collections.singletonList(entity));
+        return rows;
     }
 
     /**
@@ -88,8 +241,9 @@ public class SqlExecutor {
      * @desc 执行简单增删改
      */
     public int simpleUpdate(String sql, Object... data) {
-        valuesThreadLocal.set(Arrays.asList(data));
-        return doUpdate(sql, this::fillPst);
+        int rows = doUpdate(BoundSql.of(sql, data));
+        queryCache.invalidate(sql);
+        return rows;
     }
 
     /**
@@ -97,15 +251,29 @@ public class SqlExecutor {
      * @desc 执行带有动态语句的复杂增删改
      */
     public int update(String sql, Object data) {
-        return doUpdate(sqlBuilder.build(sql, data), this::fillPst);
+        BoundSql bound = sqlBuilder.build(sql, data);
+        int rows = doUpdate(bound);
+        queryCache.invalidate(bound.getSql());
+        return rows;
     }
 
     /**
      * @params [clazz 实体类对应字节码, id 主键值]
-     * @desc 通过主键查询
+     * @desc 通过主键查询，实体类标注了@Cached时先查二级缓存。分片的实体类主键就是分片键时只查一个分片，否则查询所有分片
      **/
     public <T> T selectById(Class<T> clazz, Object id) {
-        return doQuery(sqlBuilder.buildSelectByIdSql(clazz, id), r -> ResultSetUtil.mappingOne(r, clazz));
+        return entityCache.get(clazz, id, () -> {
+            BoundSql bound = sqlBuilder.buildSelectByIdSql(clazz, id);
+            ShardRule rule = shardRules.get(clazz);
+            if (null == rule) {
+                return doQuery(bound, r -> ResultSetUtil.mappingOne(r, clazz));
+            }
+            if (rule.getShardField() == EntityMeta.of(clazz).getIdField()) {
+                Shard shard = new Shard(rule, rule.shardOfValue(id));
+                return shard.run(() -> doQuery(shard.apply(bound), r -> ResultSetUtil.mappingOne(r, clazz)));
+            }
+            return single(doQueryList(clazz, bound));
+        });
     }
 
     /**
@@ -113,8 +281,7 @@ public class SqlExecutor {
      * @desc 执行简单查询
      */
     public <T> T simpleQueryOne(Class<T> clazz, String sql, Object... data) {
-        valuesThreadLocal.set(Arrays.asList(data));
-        return doQuery(sql, r -> ResultSetUtil.mappingOne(r, clazz));
+        return doQueryOne(clazz, BoundSql.of(sql, data));
     }
 
     /**
@@ -122,8 +289,7 @@ public class SqlExecutor {
      * @desc 执行简单查询
      */
     public <T> List<T> simpleQueryList(Class<T> clazz, String sql, Object... data) {
-        valuesThreadLocal.set(Arrays.asList(data));
-        return doQuery(sql, r -> ResultSetUtil.mappingAll(r, clazz));
+        return doQueryList(clazz, BoundSql.of(sql, data));
     }
 
     /**
@@ -131,15 +297,218 @@ public class SqlExecutor {
      * @desc 通过动态语句查询一个
      */
     public <T> T queryOne(Class<T> clazz, String sql, Object data) {
-        return doQuery(sqlBuilder.build(sql, data), r -> ResultSetUtil.mappingOne(r, clazz));
+        return doQueryOne(clazz, sqlBuilder.build(sql, data));
     }
 
     /**
      * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
-     * @desc 通过动态语句查询多个
+     * @desc 通过动态语句查询多个，clazz是分片的实体类时并行查询所有分片，按sql中的order by归并结果
      */
     public <T> List<T> queryList(Class<T> clazz, String sql, Object data) {
-        return doQuery(sqlBuilder.build(sql, data), r -> ResultSetUtil.mappingAll(r, clazz));
+        return doQueryList(clazz, sqlBuilder.build(sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型, sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 执行带有动态语句的复杂查询，返回单个，结果按最终sql和参数缓存，通过Table写入相关的表时失效
+     */
+    public <T> T cachedQueryOne(Class<T> clazz, String sql, Object data) {
+        BoundSql bound = sqlBuilder.build(sql, data);
+        return queryCache.get(clazz, true, bound, () -> doQueryOne(clazz, bound));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型, sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 执行带有动态语句的复杂查询，返回多个，结果按最终sql和参数缓存，通过Table写入相关的表时失效
+     */
+    public <T> List<T> cachedQueryList(Class<T> clazz, String sql, Object data) {
+        BoundSql bound = sqlBuilder.build(sql, data);
+        return queryCache.get(clazz, false, bound, () -> doQueryList(clazz, bound));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 通过动态语句流式查询，结果逐行映射，流关闭时释放连接，因此必须关闭返回的流。分片的实体类不支持流式查询
+     */
+    public <T> Stream<T> queryStream(Class<T> clazz, String sql, Object data) {
+        return doStream(clazz, sqlBuilder.build(sql, data));
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数, consumer 逐行处理结果的函数]
+     * @desc 通过动态语句流式查询，逐个处理结果，处理完后释放连接
+     */
+    public <T> void queryForEach(Class<T> clazz, String sql, Object data, Consumer<? super T> consumer) {
+        try (Stream<T> stream = queryStream(clazz, sql, data)) {
+            stream.forEach(consumer);
+        }
+    }
+
+    /**
+     * @params [fetchSize 流式查询每次获取的行数]
+     * @desc 设置流式查询每次获取的行数
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @params [batchSize 批量插入时每批的行数]
+     * @desc 设置批量插入时每批的行数
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new SqlException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @params [size 每个事务连接上最多缓存的语句数量，0表示不缓存]
+     * @desc 设置事务内语句缓存的容量
+     */
+    public void setStatementCacheSize(int size) {
+        this.statementCache = new StatementCache(size);
+    }
+
+    /**
+     * @desc 事务内语句缓存的命中统计
+     */
+    public CacheStats getStatementCacheStats() {
+        return statementCache.stats();
+    }
+
+    /**
+     * @params [seconds count查询结果的缓存时间，秒]
+     * @desc 设置CountMode.CACHED时count查询结果的缓存时间
+     */
+    public void setCountCacheSeconds(int seconds) {
+        this.countCache = buildCountCache(seconds);
+    }
+
+    /**
+     * @desc count查询结果缓存的命中统计
+     */
+    public CacheStats getCountCacheStats() {
+        return countCache.stats();
+    }
+
+    /**
+     * @desc 获取selectById二级缓存的命中统计，每个标注了@Cached的类一项
+     **/
+    public Map<Class<?>, CacheStats> getEntityCacheStats() {
+        return entityCache.stats();
+    }
+
+    /**
+     * @params [bytes 最大字节数，0表示关闭]
+     * @desc 设置查询结果缓存的最大字节数，按结果对象估算的大小计算，已缓存的结果被丢弃
+     */
+    public void setQueryCacheBytes(long bytes) {
+        this.queryCacheBytes = bytes;
+        queryCache.configure(queryCacheBytes, queryCacheSeconds);
+    }
+
+    /**
+     * @params [seconds 缓存时间，秒]
+     * @desc 设置查询结果缓存的缓存时间，已缓存的结果被丢弃
+     */
+    public void setQueryCacheSeconds(int seconds) {
+        this.queryCacheSeconds = seconds;
+        queryCache.configure(queryCacheBytes, queryCacheSeconds);
+    }
+
+    /**
+     * @desc 查询结果缓存的命中统计
+     */
+    public CacheStats getQueryCacheStats() {
+        return queryCache.stats();
+    }
+
+    /**
+     * @params [clazz 实体类]
+     * @desc 清空该类的二级缓存，直接执行sql修改了该表时调用
+     **/
+    public void evictEntityCache(Class<?> clazz) {
+        entityCache.invalidateAll(clazz);
+    }
+
+    /**
+     * @params [threads 线程数]
+     * @desc 设置并行分页的线程数，需要在第一次并行分页前设置
+     */
+    public void setPageThreads(int threads) {
+        if (threads < 1) {
+            throw new SqlException("pageThreads must be positive");
+        }
+        this.pageThreads = threads;
+    }
+
+    /**
+     * @params [router 数据源路由]
+     * @desc 设置默认数据源的读写分离路由，替换原来的路由时停止其复制延迟检查
+     */
+    public void setRouter(DataSourceRouter router) {
+        routers.setDefault(router);
+    }
+
+    /**
+     * @params [name 数据源名称, router 数据源路由]
+     * @desc 添加命名的数据源，通过@UseDataSource或按包名的路由使用
+     */
+    public void addRouter(String name, DataSourceRouter router) {
+        routers.put(name, router);
+    }
+
+    /**
+     * @params [routes 包名前缀->数据源名称]
+     * @desc 设置按调用者包名选择数据源的路由，数据源需要先通过addRouter添加
+     */
+    public void setPackageRoutes(Map<String, String> routes) {
+        routers.setPackageRoutes(routes);
+    }
+
+    /**
+     * @params [rule 分片规则]
+     * @desc 添加实体类的分片规则，规则中的数据源需要先通过addRouter添加
+     */
+    public void addShardRule(ShardRule rule) {
+        for (String name : rule.getDataSources()) {
+            routers.get(name);
+        }
+        shardRules.put(rule.getClazz(), rule);
+    }
+
+    /**
+     * @params [idGenerator 主键生成器]
+     * @desc 设置主键生成器，只用于主键标注了@GeneratedId的实体，其他实体仍然由数据库生成主键
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * @params [threads 线程数，0表示与连接池的最大连接数相同]
+     * @desc 设置异步执行的线程数，需要在第一次异步执行前设置
+     */
+    public void setAsyncThreads(int threads) {
+        this.asyncThreads = threads;
+    }
+
+    /**
+     * @params [virtualThreads 是否使用虚拟线程]
+     * @desc 设置异步执行是否使用虚拟线程，需要在第一次异步执行前设置
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @params [multiValues 是否拼接多行语句]
+     * @desc 设置批量插入是否拼接成 values (...),(...) 的多行语句
+     */
+    public void setMultiValues(boolean multiValues) {
+        this.multiValues = multiValues;
     }
 
     /**
@@ -147,7 +516,7 @@ public class SqlExecutor {
      * @desc 通过简单sql语句分页查询
      */
     public <T> Page<T> simplePage(Class<T> clazz, Page<T> page, String sql, Object... data) {
-        return doPage(clazz, page, sql, (c, s) -> simpleQueryOne(c, s, data), (c, s) -> simpleQueryList(c, s, data));
+        return doPage(clazz, page, BoundSql.of(sql, data));
     }
 
     /**
@@ -155,100 +524,784 @@ public class SqlExecutor {
      * @desc 通过带有动态语句的sql分页查询
      */
     public <T> Page<T> page(Class<T> clazz, Page<T> page, String sql, Object data) {
-        return doPage(clazz, page, sql, (c, s) -> queryOne(c, s, data), (c, s) -> queryList(c, s, data));
+        return doPage(clazz, page, sqlBuilder.build(sql, data));
+    }
+
+    /**
+     * @params [entity 实体对象, action 在分片上执行的操作]
+     * @desc 在实体对象所在的分片上执行，实体类没有分片规则时直接执行
+     **/
+    private <R> R inShard(Object entity, Function<Shard, R> action) {
+        ShardRule rule = null == entity ? null : shardRules.get(entity.getClass());
+        if (null == rule) {
+            return action.apply(noShard);
+        }
+        Shard shard = new Shard(rule, rule.shardOf(entity));
+        return shard.run(() -> action.apply(shard));
+    }
+
+    /**
+     * @params [entities 实体对象列表, action 在分片上执行的操作]
+     * @desc 按所在分片分组，每组在对应的分片上执行，返回影响的总行数。不同数据源上的分片不在同一个事务中
+     **/
+    private int inShards(List<?> entities, BiFunction<List<?>, Shard, Integer> action) {
+        ShardRule rule = entities.isEmpty() || null == entities.get(0) ? null : shardRules.get(entities.get(0).getClass());
+        if (null == rule) {
+            return action.apply(entities, noShard);
+        }
+        Map<Integer, List<Object>> groups = new TreeMap<>();
+        for (Object entity : entities) {
+            groups.computeIfAbsent(rule.shardOf(entity), k -> new ArrayList<>()).add(entity);
+        }
+        int rows = 0;
+        for (Map.Entry<Integer, List<Object>> group : groups.entrySet()) {
+            Shard shard = new Shard(rule, group.getKey());
+            rows += shard.run(() -> action.apply(group.getValue(), shard));
+        }
+        return rows;
     }
 
     /**
-     * @params [sql sql语句, fillPstConsumer 填充占位符的函数]
+     * @params [rule 分片规则, action 在分片上执行的操作]
+     * @desc 在所有分片上执行，不在事务中时在分片线程池中并行执行，返回每个分片的结果。
+     * 分片任务只在分片线程池中执行，分片线程不会再提交分片任务，所以调用方即使是异步线程也不会互相等待
+     **/
+    private <R> List<R> scatter(ShardRule rule, Function<Shard, R> action) {
+        List<R> results = new ArrayList<>(rule.size());
+        if (rule.size() < 2 || TransactionSynchronizationManager.isSynchronizationActive() || null != IN_SHARD_WORKER.get()) {
+            for (int i = 0; i < rule.size(); ++i) {
+                Shard shard = new Shard(rule, i);
+                results.add(shard.run(() -> action.apply(shard)));
+            }
+            return results;
+        }
+        List<Future<R>> futures = new ArrayList<>(rule.size());
+        try {
+            for (int i = 0; i < rule.size(); ++i) {
+                Shard shard = new Shard(rule, i);
+                Supplier<R> task = routers.bind(() -> shard.run(() -> action.apply(shard)));
+                futures.add(getShardExecutor().submit(() -> {
+                    IN_SHARD_WORKER.set(Boolean.TRUE);
+                    try {
+                        return task.get();
+                    } finally {
+                        IN_SHARD_WORKER.remove();
+                    }
+                }));
+            }
+            for (Future<R> future : futures) {
+                results.add(ExecutorUtil.await(future));
+            }
+        } catch (RuntimeException e) {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * @params [clazz 需要返回的类型, bound sql及参数]
+     * @desc 查询多个，clazz是分片的实体类时查询所有分片并按order by归并
+     **/
+    <T> List<T> doQueryList(Class<T> clazz, BoundSql bound) {
+        ShardRule rule = shardRules.get(clazz);
+        if (null == rule) {
+            return doQuery(bound, r -> ResultSetUtil.mappingAll(r, clazz));
+        }
+        List<List<T>> lists = scatter(rule, shard -> doQuery(shard.apply(bound), r -> ResultSetUtil.mappingAll(r, clazz)));
+        return ShardMerger.merge(lists, ShardMerger.comparator(clazz, sqlBuilder.getOrderBy(bound.getSql())));
+    }
+
+    /**
+     * @params [clazz 需要返回的类型, bound sql及参数]
+     * @desc 查询单个，clazz是分片的实体类时查询所有分片
+     **/
+    <T> T doQueryOne(Class<T> clazz, BoundSql bound) {
+        if (!shardRules.containsKey(clazz)) {
+            return doQuery(bound, r -> ResultSetUtil.mappingOne(r, clazz));
+        }
+        return single(doQueryList(clazz, bound));
+    }
+
+    /**
+     * @params [list 查询结果]
+     * @desc 取唯一的结果，多于一个时抛出异常
+     **/
+    private static <T> T single(List<T> list) {
+        if (list.size() > 1) {
+            throw new SqlException("too many result");
+        }
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * @params [clazz 需要返回的类型, page 分页对象, bound sql及参数, rule 分片规则]
+     * @desc 分片的分页查询。每个分片查询前 offset+pageSize 行后归并再截取，总数是各分片总数之和；
+     * 按排序键分页时每个分片查询 pageSize+1 行，归并后取前pageSize行
+     **/
+    private <T> Page<T> doShardPage(Class<T> clazz, Page<T> page, BoundSql bound, ShardRule rule) {
+        if (page.isSearchTotal()) {
+            int total = 0;
+            for (Integer count : scatter(rule, shard -> count(page.getCountMode(), shard.apply(bound)))) {
+                total += count;
+            }
+            page.setTotal(total);
+        }
+        int size = page.getPageSize();
+        if (page.isKeyset()) {
+            List<List<T>> lists = scatter(rule, shard -> doQuery(sqlBuilder.buildKeysetSql(shard.apply(bound), page.getSortKeys(),
+                    page.getLastKeys(), page.isDesc(), size + 1), r -> ResultSetUtil.mappingAll(r, clazz)));
+            List<String> keys = page.getSortKeys();
+            Comparator<Object> comparator = null;
+            for (int i = 0; i < keys.size(); ++i) {
+                int index = i;
+                Comparator<Object> next = ShardMerger.by(row -> getSortValues(row, keys)[index], page.isDesc());
+                comparator = null == comparator ? next : comparator.thenComparing(next);
+            }
+            List<T> merged = ShardMerger.merge(lists, comparator);
+            page.setHasNext(merged.size() > size);
+            List<T> list = new ArrayList<>(merged.subList(0, Math.min(size, merged.size())));
+            page.setList(list);
+            if (!list.isEmpty()) {
+                page.setLastKeys(getSortValues(list.get(list.size() - 1), keys));
+            }
+            return page;
+        }
+        int offset = (page.getPageNum() - 1) * size;
+        List<List<T>> lists = scatter(rule, shard -> doQuery(sqlBuilder.buildPageSql(shard.apply(bound), 0, offset + size),
+                r -> ResultSetUtil.mappingAll(r, clazz)));
+        List<T> merged = ShardMerger.merge(lists, ShardMerger.comparator(clazz, sqlBuilder.getOrderBy(bound.getSql())));
+        page.setList(new ArrayList<>(merged.subList(Math.min(offset, merged.size()), Math.min(offset + size, merged.size()))));
+        return page;
+    }
+
+    /**
+     * @params [entities 写入的实体对象]
+     * @desc 通过实体写入成功后，使二级缓存中对应的主键和读过该表的查询结果失效，没有写入任何对象时不做处理
+     **/
+    private void afterWrite(List<?> entities) {
+        if (entities.isEmpty() || null == entities.get(0)) {
+            return;
+        }
+        entityCache.invalidate(entities);
+        queryCache.invalidateTables(EntityMeta.of(entities.get(0).getClass()).getTableName().toLowerCase());
+    }
+
+    /**
+     * @params [entity 实体对象]
+     * @desc 主键标注了@GeneratedId并且为空时通过主键生成器分配主键，返回是否标注了@GeneratedId。
+     * 没有标注的实体不做任何处理，仍然由数据库生成主键
+     **/
+    private boolean assignId(Object entity) {
+        EntityMeta meta = EntityMeta.of(entity.getClass());
+        if (!meta.isGeneratedId()) {
+            return false;
+        }
+        FieldMeta idField = meta.getIdField();
+        if (isEmptyId(idField, entity)) {
+            setGeneratedId(idField, entity, getIdGenerator(meta).nextId(meta.getTableName()));
+        }
+        return true;
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 主键标注了@GeneratedId时为主键为空的对象批量分配主键，返回是否标注了@GeneratedId。
+     * 先校验列表，空列表、含有null或者类型不一致时与构建sql时一样抛出SqlException
+     **/
+    private boolean assignIds(List<?> entities) {
+        EntityMeta meta = sqlBuilder.getListMeta(entities);
+        if (!meta.isGeneratedId()) {
+            return false;
+        }
+        FieldMeta idField = meta.getIdField();
+        List<Object> pending = new ArrayList<>();
+        for (Object entity : entities) {
+            if (isEmptyId(idField, entity)) {
+                pending.add(entity);
+            }
+        }
+        if (pending.isEmpty()) {
+            return true;
+        }
+        long[] ids = getIdGenerator(meta).nextIds(meta.getTableName(), pending.size());
+        for (int i = 0; i < ids.length; ++i) {
+            setGeneratedId(idField, pending.get(i), ids[i]);
+        }
+        return true;
+    }
+
+    /**
+     * @params [meta 实体类的元数据]
+     * @desc 获取主键生成器，实体标注了@GeneratedId却没有配置时抛出异常
+     **/
+    private IdGenerator getIdGenerator(EntityMeta meta) {
+        IdGenerator generator = idGenerator;
+        if (null == generator) {
+            throw new SqlException(meta.getClazz().getName() + " uses @GeneratedId but no IdGenerator is configured");
+        }
+        return generator;
+    }
+
+    /**
+     * @params [idField 主键字段, entity 实体对象]
+     * @desc 主键是否为空，基本类型的主键为0时视为空
+     **/
+    private static boolean isEmptyId(FieldMeta idField, Object entity) {
+        Object id = idField.get(entity);
+        return null == id || idField.getType().isPrimitive() && id instanceof Number && ((Number) id).longValue() == 0;
+    }
+
+    /**
+     * @params [idField 主键字段, entity 实体对象, id 生成的主键]
+     * @desc 按主键字段的类型设置生成的主键
+     **/
+    private static void setGeneratedId(FieldMeta idField, Object entity, long id) {
+        Class<?> type = idField.getType();
+        if (type == Long.class || type == long.class) {
+            idField.set(entity, id);
+        } else if (type == String.class) {
+            idField.set(entity, String.valueOf(id));
+        } else if (id > Integer.MAX_VALUE) {
+            throw new SqlException("generated id " + id + " overflows the int field " + idField.getName());
+        } else {
+            idField.set(entity, (int) id);
+        }
+    }
+
+    /**
+     * @params [bound sql及参数]
      * @desc 执行增删改
      **/
-    private int doUpdate(String sql, BiThrowConsumer<PreparedStatement, List<Object>> fillPstConsumer) {
-        try (Connection con = DataSourceUtils.getConnection(dataSource); PreparedStatement pst = con.prepareStatement(sql)) {
+    private int doUpdate(BoundSql bound) {
+        return doInConnection(false, con -> executeUpdate(con, bound));
+    }
+
+    /**
+     * @params [con 连接, bound sql及参数]
+     * @desc 在指定连接上执行增删改
+     **/
+    private int executeUpdate(Connection con, BoundSql bound) throws SQLException {
+        PreparedStatement pst = statementCache.prepare(con, bound.getSql(), false);
+        try {
             //填充占位符
-            fillPstConsumer.accept(pst, valuesThreadLocal.get());
+            fillPst(pst, bound.getParams(), bound.getParamTypes());
             return pst.executeUpdate();
-        } catch (SQLException e) {
-            throw new SqlException(e);
         } finally {
-            valuesThreadLocal.remove();
+            statementCache.release(con, pst);
         }
     }
 
     /**
-     * @params [sql sql语句, fillPstConsumer 填充占位符的函数, echoIdConsumer 回显主键值的函数]
+     * @params [bound sql及参数, echoIdConsumer 回显主键值的函数]
      * @desc 执行增删改，并回显主键值
      **/
-    private int doUpdateAndEchoId(String sql, BiThrowConsumer<PreparedStatement, List<Object>> fillPstConsumer, ThrowConsumer<ResultSet> echoIdConsumer) {
-        ResultSet rs = null;
-        try (Connection con = DataSourceUtils.getConnection(dataSource); PreparedStatement pst = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            //填充占位符
-            fillPstConsumer.accept(pst, valuesThreadLocal.get());
-            int rows = pst.executeBatch().length;
-            rs = pst.getGeneratedKeys();
-            //回显主键
-            echoIdConsumer.accept(rs);
-            return rows;
-        } catch (Exception e) {
-            throw new SqlException(e);
+    private int doUpdateAndEchoId(BoundSql bound, ThrowConsumer<ResultSet> echoIdConsumer) {
+        return doInConnection(false, con -> {
+            PreparedStatement pst = statementCache.prepare(con, bound.getSql(), true);
+            try {
+                //填充占位符
+                fillPst(pst, bound.getParams(), bound.getParamTypes());
+                int rows = pst.executeUpdate();
+                //回显主键
+                try (ResultSet rs = pst.getGeneratedKeys()) {
+                    echoIdConsumer.accept(rs);
+                }
+                return rows;
+            } finally {
+                statementCache.release(con, pst);
+            }
+        });
+    }
+
+    /**
+     * @params [batch 批量sql及每行的参数, entities 需要回显主键的对象列表，为null时不回显]
+     * @desc 分批执行批量插入，所有批次使用同一个连接，返回实际影响的行数
+     **/
+    private int doBatch(BatchSql batch, List<?> entities) {
+        return doInConnection(false, (ds, con) -> executeBatch(con, batch, entities, multiValues && !isRewriteBatched(ds, con)));
+    }
+
+    /**
+     * @params [read 是否是读操作, func 使用连接的函数]
+     * @desc 获取连接并执行，执行完后释放连接，事务中的连接由事务管理器释放。读操作在事务外时可能路由到从库
+     **/
+    private <R> R doInConnection(boolean read, ThrowFunction<Connection, R> func) {
+        return doInConnection(read, (ds, con) -> func.apply(con));
+    }
+
+    /**
+     * @params [read 是否是读操作, func 使用数据源和连接的函数]
+     * @desc 获取连接并执行，与doInConnection(read, func)相同，func还可以得到连接所属的数据源
+     **/
+    private <R> R doInConnection(boolean read, BiThrowFunction<DataSource, Connection, R> func) {
+        DataSourceRouter router = routers.current();
+        DataSource ds = router.acquire(read);
+        try {
+            Connection con = DataSourceUtils.getConnection(ds);
+            try {
+                return func.apply(ds, con);
+            } catch (SqlException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SqlException(e);
+            } finally {
+                DataSourceUtils.releaseConnection(con, ds);
+            }
         } finally {
-            valuesThreadLocal.remove();
-            ResultSetUtil.releaseRs(rs);
+            router.release(ds);
+        }
+    }
+
+    /**
+     * @params [con 连接, batch 批量sql及每行的参数, entities 需要回显主键的对象列表，为null时不回显, multi 是否拼接多行语句，只适用于插入]
+     * @desc 每batchSize行执行一次executeBatch，返回实际影响的行数
+     **/
+    private int executeBatch(Connection con, BatchSql batch, List<?> entities, boolean multi) throws Exception {
+        String sql = batch.getSql();
+        List<List<Object>> valuesList = batch.getRows();
+        List<Class<?>> types = batch.getParamTypes();
+        int size = multi ? Math.min(batchSize, Math.max(1, MAX_PLACEHOLDERS / types.size())) : batchSize;
+        //完整批次的多行语句只构建一次
+        String fullSql = multi ? sqlBuilder.buildMultiValuesSql(sql, size) : sql;
+        int rows = 0;
+        for (int from = 0; from < valuesList.size(); from += size) {
+            int to = Math.min(from + size, valuesList.size());
+            List<List<Object>> chunk = valuesList.subList(from, to);
+            String chunkSql = !multi || chunk.size() == size ? fullSql : sqlBuilder.buildMultiValuesSql(sql, chunk.size());
+            PreparedStatement pst = statementCache.prepare(con, chunkSql, null != entities);
+            try {
+                if (multi) {
+                    fillPstRows(pst, chunk, types);
+                    rows += pst.executeUpdate();
+                } else {
+                    fillPstList(pst, chunk, types);
+                    rows += countRows(pst.executeBatch());
+                }
+                if (null != entities) {
+                    try (ResultSet rs = pst.getGeneratedKeys()) {
+                        ResultSetUtil.echoIdList(rs, entities.subList(from, to));
+                    }
+                }
+            } finally {
+                statementCache.release(con, pst);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @params [ds 数据源, con 从该数据源获取的连接]
+     * @desc 判断驱动是否会把批量语句改写成多行语句，按数据源缓存检测结果
+     **/
+    private boolean isRewriteBatched(DataSource ds, Connection con) throws SQLException {
+        Boolean rewrite = rewriteBatched.get(ds);
+        if (null == rewrite) {
+            String url = con.getMetaData().getURL();
+            rewrite = null != url && url.toLowerCase().contains("rewritebatchedstatements=true");
+            rewriteBatched.put(ds, rewrite);
+        }
+        return rewrite;
+    }
+
+    /**
+     * @params [counts executeBatch的返回值]
+     * @desc 统计批量执行影响的行数，驱动无法得知行数时(SUCCESS_NO_INFO)按1行计算
+     **/
+    private int countRows(int[] counts) {
+        int rows = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                rows += count;
+            } else if (Statement.SUCCESS_NO_INFO == count) {
+                ++rows;
+            }
         }
+        return rows;
     }
 
     /**
-     * @params [sql sql语句, mappingFunc 映射结果集的函数]
+     * @params [bound sql及参数, mappingFunc 映射结果集的函数]
      * @desc 执行查询
      */
-    private <R> R doQuery(String sql, ThrowFunction<ResultSet, R> mappingFunc) {
+    <R> R doQuery(BoundSql bound, ThrowFunction<ResultSet, R> mappingFunc) {
+        return doInConnection(true, con -> {
+            PreparedStatement pst = statementCache.prepare(con, bound.getSql(), false);
+            try {
+                fillPst(pst, bound.getParams(), bound.getParamTypes());
+                try (ResultSet rs = pst.executeQuery()) {
+                    return mappingFunc.apply(rs);
+                }
+            } finally {
+                statementCache.release(con, pst);
+            }
+        });
+    }
+
+    /**
+     * @params [clazz 需要返回的类型, bound sql及参数]
+     * @desc 执行流式查询，使用只读、只能向前的游标，连接在流关闭时释放。游标会一直占用语句，因此不使用语句缓存。
+     * 分片的实体类需要同时占用每个分片的连接并归并游标，不支持流式查询
+     */
+    private <T> Stream<T> doStream(Class<T> clazz, BoundSql bound) {
+        if (shardRules.containsKey(clazz)) {
+            throw new SqlException("stream query is not supported for sharded class " + clazz.getName() + ", use queryList or page instead");
+        }
+        DataSourceRouter router = routers.current();
+        DataSource ds = router.acquire(true);
+        Connection con;
+        try {
+            con = DataSourceUtils.getConnection(ds);
+        } catch (RuntimeException e) {
+            router.release(ds);
+            throw e;
+        }
+        PreparedStatement pst = null;
         ResultSet rs = null;
-        try (Connection cn = DataSourceUtils.getConnection(dataSource); PreparedStatement pst = cn.prepareStatement(sql)) {
-            fillPst(pst, valuesThreadLocal.get());
+        //流交给调用者之后才由流关闭时释放资源，之前的任何异常(包括映射计划、参数填充抛出的运行时异常)都在这里释放
+        Stream<T> stream = null;
+        try {
+            pst = con.prepareStatement(bound.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pst.setFetchSize(getFetchSize(con));
+            fillPst(pst, bound.getParams(), bound.getParamTypes());
             rs = pst.executeQuery();
-            return mappingFunc.apply(rs);
-        } catch (Exception e) {
+            MappingPlan plan = MappingPlan.of(rs.getMetaData(), clazz);
+            ResultSet cursor = rs;
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (!cursor.next()) {
+                            return false;
+                        }
+                        action.accept(plan.mapRow(cursor));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new SqlException(e);
+                    }
+                }
+            };
+            PreparedStatement statement = pst;
+            stream = StreamSupport.stream(spliterator, false).onClose(() -> release(router, ds, con, statement, cursor));
+            return stream;
+        } catch (SQLException e) {
             throw new SqlException(e);
         } finally {
-            valuesThreadLocal.remove();
+            if (null == stream) {
+                release(router, ds, con, pst, rs);
+            }
+        }
+    }
+
+    /**
+     * @params [con 连接]
+     * @desc 获取流式查询每次获取的行数
+     */
+    private int getFetchSize(Connection con) throws SQLException {
+        if (0 != fetchSize) {
+            return fetchSize;
+        }
+        return con.getMetaData().getDriverName().toLowerCase().contains("mysql") ? Integer.MIN_VALUE : DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * @params [router 数据源路由, ds 数据源, con 连接, pst PreparedStatement, rs 结果集]
+     * @desc 释放流式查询的资源，事务中的连接由事务管理器释放
+     */
+    private void release(DataSourceRouter router, DataSource ds, Connection con, Statement pst, ResultSet rs) {
+        try {
             ResultSetUtil.releaseRs(rs);
+            if (null != pst) {
+                pst.close();
+            }
+        } catch (SQLException e) {
+            throw new SqlException(e);
+        } finally {
+            DataSourceUtils.releaseConnection(con, ds);
+            router.release(ds);
         }
     }
 
     /**
-     * @params [clazz 需要返回的类型, page 分页对象, sql sql语句, countFunc 查询数量的函数, listFunc 查询列表的函数]
+     * @params [clazz 需要返回的类型, page 分页对象, bound 不含动态语句的sql及参数]
      * @desc 执行分页查询
      **/
-    private <T> Page<T> doPage(Class<T> clazz, Page<T> page, String sql, BiFunction<Class<Integer>, String, Integer> countFunc, BiFunction<Class<T>, String, List<T>> listFunc) {
+    private <T> Page<T> doPage(Class<T> clazz, Page<T> page, BoundSql bound) {
+        ShardRule rule = shardRules.get(clazz);
+        if (null != rule) {
+            return doShardPage(clazz, page, bound, rule);
+        }
+        Future<Integer> total = null;
         if (page.isSearchTotal()) {
-            Integer count = countFunc.apply(Integer.class, "select count(*) from (" + sql + ")");
-            page.setTotal(null == count ? 0 : count);
+            //事务中的连接绑定在当前线程上，只有不在事务中时才能并行
+            if (page.isParallel() && !TransactionSynchronizationManager.isSynchronizationActive()) {
+                Supplier<Integer> countTask = routers.bind(() -> count(page.getCountMode(), bound));
+                total = getPageExecutor().submit(countTask::get);
+            } else {
+                page.setTotal(count(page.getCountMode(), bound));
+            }
+        }
+        try {
+            if (page.isKeyset()) {
+                doKeysetPage(clazz, page, bound);
+            } else {
+                BoundSql pageSql = sqlBuilder.buildPageSql(bound, (page.getPageNum() - 1) * page.getPageSize(), page.getPageSize());
+                page.setList(doQuery(pageSql, r -> ResultSetUtil.mappingAll(r, clazz)));
+            }
+        } catch (RuntimeException e) {
+            if (null != total) {
+                total.cancel(true);
+            }
+            throw e;
+        }
+        if (null != total) {
+            page.setTotal(ExecutorUtil.await(total));
+        }
+        return page;
+    }
+
+    /**
+     * @params [task 异步执行的任务]
+     * @desc 在提交任务的线程确定数据源，任务在其他线程执行时使用同一个数据源
+     **/
+    <R> Supplier<R> bindRouter(Supplier<R> task) {
+        return routers.bind(task);
+    }
+
+    /**
+     * @desc 获取sql构建器
+     **/
+    SqlBuilder getSqlBuilder() {
+        return sqlBuilder;
+    }
+
+    /**
+     * @desc 获取并行分页使用的线程池，第一次使用时创建
+     **/
+    private ExecutorService getPageExecutor() {
+        ExecutorService executor = pageExecutor;
+        if (null == executor) {
+            synchronized (this) {
+                executor = pageExecutor;
+                if (null == executor) {
+                    executor = ExecutorUtil.newBoundedExecutor("silence-page-", pageThreads);
+                    pageExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @desc 获取并行查询分片使用的线程池，第一次使用时创建，线程数与连接池的最大连接数相同，饱和时提交任务的线程等待
+     **/
+    private ExecutorService getShardExecutor() {
+        ExecutorService executor = shardExecutor;
+        if (null == executor) {
+            synchronized (this) {
+                executor = shardExecutor;
+                if (null == executor) {
+                    executor = ExecutorUtil.newBoundedExecutor("silence-shard-", ExecutorUtil.getMaxPoolSize(dataSource));
+                    shardExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @desc 获取异步执行使用的线程池，第一次使用时创建。配置了虚拟线程并且jdk支持时使用虚拟线程，
+     * 否则使用有界线程池，线程数默认与连接池的最大连接数相同，饱和时提交任务的线程等待。
+     * 任务总是在线程池中执行，不会在提交任务的线程中执行而加入它的事务
+     **/
+    ExecutorService getAsyncExecutor() {
+        ExecutorService executor = asyncExecutor;
+        if (null == executor) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (null == executor) {
+                    int threads = asyncThreads > 0 ? asyncThreads : ExecutorUtil.getMaxPoolSize(dataSource);
+                    executor = virtualThreads ? ExecutorUtil.newVirtualExecutor(threads) : null;
+                    if (null == executor) {
+                        executor = ExecutorUtil.newBoundedExecutor("silence-async-", threads);
+                    }
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @params [mode 查询总数的方式, bound 不含动态语句的sql及参数]
+     * @desc 查询总数
+     **/
+    private int count(CountMode mode, BoundSql bound) {
+        BoundSql countSql = sqlBuilder.buildCountSql(bound);
+        if (CountMode.ESTIMATED == mode) {
+            Integer estimate = estimateCount(bound);
+            if (null != estimate) {
+                return estimate;
+            }
+        }
+        if (CountMode.CACHED != mode) {
+            return exactCount(countSql);
+        }
+        Integer count = countCache.getIfPresent(countSql);
+        if (null == count) {
+            count = exactCount(countSql);
+            countCache.put(countSql, count);
+        }
+        return count;
+    }
+
+    /**
+     * @params [countSql count语句及参数]
+     * @desc 执行count语句
+     **/
+    private int exactCount(BoundSql countSql) {
+        Integer count = doQuery(countSql, r -> ResultSetUtil.mappingOne(r, Integer.class));
+        return null == count ? 0 : count;
+    }
+
+    /**
+     * @params [bound 原查询语句及参数]
+     * @desc 通过explain原查询获取估算的行数，即第一行的rows*filtered/100，数据库不支持或者rows为NULL时返回null。
+     * 不explain count语句，因为mysql可能直接优化掉count(*)，rows为NULL
+     **/
+    private Integer estimateCount(BoundSql bound) {
+        try {
+            return doQuery(bound.wrap("explain " + bound.getSql()), r -> {
+                if (!r.next()) {
+                    return null;
+                }
+                ResultSetMetaData md = r.getMetaData();
+                Double rows = null;
+                double filtered = 100;
+                for (int i = 1; i <= md.getColumnCount(); ++i) {
+                    String label = md.getColumnLabel(i);
+                    if ("rows".equalsIgnoreCase(label)) {
+                        double v = r.getDouble(i);
+                        rows = r.wasNull() ? null : v;
+                    } else if ("filtered".equalsIgnoreCase(label)) {
+                        double v = r.getDouble(i);
+                        filtered = r.wasNull() ? 100 : v;
+                    }
+                }
+                return null == rows ? null : (int) Math.min(Integer.MAX_VALUE, Math.round(rows * filtered / 100));
+            });
+        } catch (SqlException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @params [clazz 需要返回的类型, page 分页对象, bound 不含动态语句的sql及参数]
+     * @desc 执行按排序键分页的查询，多查一行用于判断是否还有下一页，并将本页最后一行的排序键写回分页对象
+     **/
+    private <T> Page<T> doKeysetPage(Class<T> clazz, Page<T> page, BoundSql bound) {
+        BoundSql keysetSql = sqlBuilder.buildKeysetSql(bound, page.getSortKeys(), page.getLastKeys(), page.isDesc(), page.getPageSize() + 1);
+        List<T> list = doQuery(keysetSql, r -> ResultSetUtil.mappingAll(r, clazz));
+        boolean hasNext = list.size() > page.getPageSize();
+        if (hasNext) {
+            list.remove(list.size() - 1);
+        }
+        page.setHasNext(hasNext);
+        page.setList(list);
+        if (!list.isEmpty()) {
+            page.setLastKeys(getSortValues(list.get(list.size() - 1), page.getSortKeys()));
         }
-        page.setList(listFunc.apply(clazz, sql + " limit " + (page.getPageNum() - 1) + "," + page.getPageSize()));
         return page;
     }
 
     /**
-     * @params [pst PreparedStatement, values 参数列表]
+     * @params [row 一行数据, sortKeys 排序键]
+     * @desc 获取一行数据中排序键的值
+     **/
+    private Object[] getSortValues(Object row, List<String> sortKeys) {
+        Object[] values = new Object[sortKeys.size()];
+        for (int i = 0; i < values.length; ++i) {
+            String key = sortKeys.get(i);
+            if (row instanceof Map) {
+                values[i] = ((Map<?, ?>) row).get(key);
+                continue;
+            }
+            FieldMeta field = EntityMeta.of(row.getClass()).getByColumn(key);
+            if (null == field) {
+                throw new SqlException("can not find the field of sort key: " + key);
+            }
+            values[i] = field.get(row);
+        }
+        return values;
+    }
+
+    /**
+     * @params [pst PreparedStatement, rows 每行的参数列表, types 参数声明的类型]
      * @desc 向批量占位符中填充值
      */
-    private void fillPstList(PreparedStatement pst, List<?> values) throws SQLException {
-        for (Object value : values) {
-            if (!(value instanceof List<?>)) {
-                throw new SqlException("your input is not a list");
-            }
-            fillPst(pst, (List<?>) value);
+    private void fillPstList(PreparedStatement pst, List<List<Object>> rows, List<Class<?>> types) throws SQLException {
+        for (List<Object> row : rows) {
+            fillPst(pst, row, types);
             pst.addBatch();
         }
     }
 
     /**
-     * @params [pst PreparedStatement, values 参数列表]
-     * @desc 向占位符中填充值
+     * @params [seconds 缓存时间，秒]
+     * @desc 创建count查询结果的缓存
+     */
+    private static Cache<BoundSql, Integer> buildCountCache(int seconds) {
+        return CacheBuilder.newBuilder().maximumSize(COUNT_CACHE_SIZE).expireAfterWrite(seconds, TimeUnit.SECONDS).recordStats().build();
+    }
+
+    /**
+     * @params [pst PreparedStatement, rows 每行的参数列表, types 参数声明的类型]
+     * @desc 向多行语句的占位符中依次填充每行的值
+     */
+    private void fillPstRows(PreparedStatement pst, List<List<Object>> rows, List<Class<?>> types) throws SQLException {
+        int index = 1;
+        for (List<Object> row : rows) {
+            for (int i = 0; i < row.size(); ++i) {
+                JdbcType.bind(pst, index++, row.get(i), types.get(i));
+            }
+        }
+    }
+
+    /**
+     * @params [pst PreparedStatement, values 参数列表, types 参数声明的类型]
+     * @desc 向占位符中填充值，按值的类型调用对应的setXxx，null值按声明的类型调用setNull
      */
-    private void fillPst(PreparedStatement pst, List<?> values) throws SQLException {
+    private void fillPst(PreparedStatement pst, List<?> values, List<Class<?>> types) throws SQLException {
         for (int i = 0; i < values.size(); ++i) {
-            pst.setObject(i + 1, values.get(i));
+            JdbcType.bind(pst, i + 1, values.get(i), types.get(i));
         }
     }
 
+    /**
+     * @desc 一个分片，负责把sql中的逻辑表名改写成物理表名，并切换到分片所在的数据源。rule为null表示不分片
+     */
+    private class Shard {
+        private final ShardRule rule;
+        private final int index;
+
+        private Shard(ShardRule rule, int index) {
+            this.rule = rule;
+            this.index = index;
+        }
+
+        private BoundSql apply(BoundSql bound) {
+            return null == rule ? bound : bound.withSql(sqlBuilder.buildShardSql(bound.getSql(), rule.getLogicalTable(), rule.tableName(index)));
+        }
+
+        private BatchSql apply(BatchSql batch) {
+            return null == rule ? batch : batch.withSql(sqlBuilder.buildShardSql(batch.getSql(), rule.getLogicalTable(), rule.tableName(index)));
+        }
+
+        private <R> R run(Supplier<R> task) {
+            String dataSource = null == rule ? null : rule.dataSource(index);
+            return null == dataSource ? task.get() : routers.call(routers.get(dataSource), task);
+        }
+    }
 }
@@ -0,0 +1,291 @@
+package com.tm.orm.silence.core;
+
+import com.tm.orm.silence.exception.SqlException;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+
+import static com.tm.orm.silence.util.ReflectUtil.getValueFromMap;
+import static com.tm.orm.silence.util.StringUtil.*;
+
+/**
+ * @author yudm
+ * @date 2021/8/2 10:12
+ * @desc 编译后的动态sql模板，模板字符串只解析一次，之后每次构建只需用参数遍历节点树
+ */
+class SqlTemplate {
+    //模板中出现的所有参数名，用于将入参转化成map
+    private final List<String> keys;
+    //模板的节点树
+    private final List<Node> nodes;
+
+    private SqlTemplate(List<String> keys, List<Node> nodes) {
+        this.keys = keys;
+        this.nodes = nodes;
+    }
+
+    /**
+     * @params [sql 动态sql语句, conditions 获取编译后的if条件表达式]
+     * @desc 将动态sql解析成节点树
+     **/
+    static SqlTemplate compile(String sql, Function<String, Condition> conditions) {
+        List<String> keys = new ArrayList<>();
+        List<Node> nodes = parse(sql, conditions, keys);
+        return new SqlTemplate(Collections.unmodifiableList(keys), nodes);
+    }
+
+    /**
+     * @desc 模板中出现的所有参数名
+     **/
+    List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @params [param map参数, values 存放预编译参数的值]
+     * @desc 用参数遍历节点树，构建出最终的sql
+     **/
+    String apply(Map<String, Object> param, List<Object> values) {
+        StringBuilder sb = new StringBuilder();
+        applyAll(nodes, sb, param, values);
+        return sb.toString();
+    }
+
+    /**
+     * @params [sql 动态sql语句, conditions 获取编译后的if条件表达式, keys 存放解析出的参数名]
+     * @desc 解析动态sql，最外层的动态语句块各自成为一个节点，其余部分成为文本节点
+     **/
+    private static List<Node> parse(String sql, Function<String, Condition> conditions, List<String> keys) {
+        List<Node> nodes = new ArrayList<>();
+        ArrayList<Position> positions = getPositions(sql, DYNAMIC_LABEL);
+        int last = 0;
+        for (Position position : positions) {
+            //动态语句块之前的非动态语句
+            addText(nodes, sql.substring(last, position.getBegin()), keys);
+            String ds = sql.substring(position.getBegin(), position.getEnd() + 1);
+            if (ds.startsWith("&[")) {
+                nodes.add(parseIf(ds, conditions, keys));
+            } else if (ds.startsWith("@[")) {
+                nodes.add(new WhereNode(parse(ds.substring(2, ds.length() - 1), conditions, keys)));
+            } else if (ds.startsWith("%[")) {
+                nodes.add(parseForeach(ds, conditions, keys));
+            }
+            last = position.getEnd() + 1;
+        }
+        //最后的非动态语句
+        addText(nodes, sql.substring(last), keys);
+        return nodes;
+    }
+
+    /**
+     * @params [nodes 节点列表, text 非动态语句, keys 存放解析出的参数名]
+     * @desc 将非动态语句解析成由常量和参数组成的文本节点
+     **/
+    private static void addText(List<Node> nodes, String text, List<String> keys) {
+        if (text.isEmpty()) {
+            return;
+        }
+        List<Object> parts = new ArrayList<>();
+        Matcher matcher = ALL_PARAM.matcher(text);
+        int last = 0;
+        while (matcher.find()) {
+            if (matcher.start() > last) {
+                parts.add(text.substring(last, matcher.start()));
+            }
+            String group = matcher.group(0);
+            String key = group.substring(2, group.length() - 1).trim();
+            parts.add(new Param(key, group.charAt(0) == '#'));
+            keys.add(key);
+            last = matcher.end();
+        }
+        if (last < text.length()) {
+            parts.add(text.substring(last));
+        }
+        nodes.add(new TextNode(parts.toArray()));
+    }
+
+    /**
+     * @params [ds if语句块, conditions 获取编译后的if条件表达式, keys 存放解析出的参数名]
+     * @desc 解析if语句块
+     **/
+    private static Node parseIf(String ds, Function<String, Condition> conditions, List<String> keys) {
+        //if中的条件表达式
+        String head = extractFirst(ds, IF);
+        if (head.isEmpty()) {
+            throw new SqlException("sql statement error: there is no conditions in &[]");
+        }
+        //截取真正的条件表达式
+        Condition condition = conditions.apply(replaceAll(replaceAll(head, IF_LABEL, ""), SINGLY_QUOTED, "\""));
+        keys.addAll(Arrays.asList(condition.getNames()));
+        List<Node> children = parse(ds.substring(head.length(), ds.length() - 1), conditions, keys);
+        return new IfNode(condition, children);
+    }
+
+    /**
+     * @params [ds foreach语句块, conditions 获取编译后的if条件表达式, keys 存放解析出的参数名]
+     * @desc 解析foreach语句块
+     **/
+    private static Node parseForeach(String ds, Function<String, Condition> conditions, List<String> keys) {
+        String head = extractFirst(ds, FOREACH_ATTR);
+        //获取属性
+        String[] attributes = replaceAll(head, FOREACH_LABEL, "").split(",");
+        //将属性和属性的值转化成map
+        Map<String, String> attributeMap = new HashMap<>(5);
+        for (String a : attributes) {
+            String[] kv = a.split("=");
+            if (kv.length < 2) {
+                throw new SqlException("bad foreach statement");
+            }
+            attributeMap.put(kv[0].trim(), kv[1].trim());
+        }
+        //o:开始符号，c:结束符号，s:分隔符，i:每一项的名字，v:集合变量的名字
+        if (!attributeMap.keySet().containsAll(Arrays.asList("o", "c", "s", "i", "v"))) {
+            throw new SqlException("Attribute [o,c,s,i,v] is necessary");
+        }
+        keys.add(attributeMap.get("v"));
+        List<Node> children = parse(ds.substring(head.length(), ds.length() - 1), conditions, keys);
+        return new ForeachNode(attributeMap.get("o"), attributeMap.get("c"), attributeMap.get("s"), attributeMap.get("i"), attributeMap.get("v"), children);
+    }
+
+    private static void applyAll(List<Node> nodes, StringBuilder sb, Map<String, Object> param, List<Object> values) {
+        for (Node node : nodes) {
+            node.apply(sb, param, values);
+        }
+    }
+
+    /**
+     * @desc 节点树中的节点
+     */
+    private interface Node {
+        void apply(StringBuilder sb, Map<String, Object> param, List<Object> values);
+    }
+
+    /**
+     * @desc 文本中的参数，prepared为true时是#{}，否则是${}
+     */
+    private static class Param {
+        private final String key;
+        private final boolean prepared;
+
+        private Param(String key, boolean prepared) {
+            this.key = key;
+            this.prepared = prepared;
+        }
+    }
+
+    /**
+     * @desc 文本节点，由常量字符串和参数交替组成
+     */
+    private static class TextNode implements Node {
+        private final Object[] parts;
+
+        private TextNode(Object[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public void apply(StringBuilder sb, Map<String, Object> param, List<Object> values) {
+            for (Object part : parts) {
+                if (part instanceof String) {
+                    sb.append((String) part);
+                    continue;
+                }
+                Param p = (Param) part;
+                Object value = getValueFromMap(param, p.key);
+                if (p.prepared) {
+                    //加入到sql参数列表中
+                    values.add(value);
+                    sb.append('?');
+                } else {
+                    sb.append(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @desc if语句块
+     */
+    private static class IfNode implements Node {
+        private final Condition condition;
+        private final List<Node> children;
+
+        private IfNode(Condition condition, List<Node> children) {
+            this.condition = condition;
+            this.children = children;
+        }
+
+        @Override
+        public void apply(StringBuilder sb, Map<String, Object> param, List<Object> values) {
+            //如果表达式成立
+            if (condition.test(param)) {
+                applyAll(children, sb, param, values);
+            }
+        }
+    }
+
+    /**
+     * @desc where语句块
+     */
+    private static class WhereNode implements Node {
+        private final List<Node> children;
+
+        private WhereNode(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public void apply(StringBuilder sb, Map<String, Object> param, List<Object> values) {
+            StringBuilder w = new StringBuilder();
+            applyAll(children, w, param, values);
+            if (w.toString().trim().isEmpty()) {
+                return;
+            }
+            //把多余的and或or去掉
+            sb.append("where").append(replaceFirst(w.toString(), SQL_LOGIC_LABEL, " "));
+        }
+    }
+
+    /**
+     * @desc foreach语句块，o:开始符号，c:结束符号，s:分隔符，i:每一项的名字，v:集合变量的名字
+     */
+    private static class ForeachNode implements Node {
+        private final String open;
+        private final String close;
+        private final String separator;
+        private final String item;
+        private final String collection;
+        private final List<Node> children;
+
+        private ForeachNode(String open, String close, String separator, String item, String collection, List<Node> children) {
+            this.open = open;
+            this.close = close;
+            this.separator = separator;
+            this.item = item;
+            this.collection = collection;
+            this.children = children;
+        }
+
+        @Override
+        public void apply(StringBuilder sb, Map<String, Object> param, List<Object> values) {
+            //获取集合
+            Object v = getValueFromMap(param, collection);
+            if (!(v instanceof Collection<?>)) {
+                throw new SqlException(collection + " is not a collection");
+            }
+            //开始拼接foreach语句块
+            sb.append(open);
+            boolean first = true;
+            for (Object obj : (Collection<?>) v) {
+                if (!first) {
+                    sb.append(separator);
+                }
+                first = false;
+                param.put(item, obj);
+                applyAll(children, sb, param, values);
+            }
+            sb.append(close).append(" ");
+        }
+    }
+}
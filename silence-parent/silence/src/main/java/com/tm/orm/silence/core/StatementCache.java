@@ -0,0 +1,162 @@
+package com.tm.orm.silence.core;
+
+import com.google.common.cache.CacheStats;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author yudm
+ * @date 2021/8/20 10:15
+ * @desc 事务内的PreparedStatement缓存。只在开启了事务同步时生效，缓存绑定到当前事务的连接上，按sql复用，
+ * 超出容量时关闭最久未使用的，事务结束时全部关闭。没有事务时连接用完即归还连接池，语句不做缓存
+ */
+class StatementCache {
+    //需要回显主键的语句与普通语句区分开
+    private static final String GENERATED_KEYS_SUFFIX = "\n--generated keys";
+    //每个连接最多缓存的语句数量，0表示不缓存
+    private final int capacity;
+    //命中次数
+    private final LongAdder hitCount = new LongAdder();
+    //未命中次数
+    private final LongAdder missCount = new LongAdder();
+    //淘汰次数
+    private final LongAdder evictionCount = new LongAdder();
+
+    StatementCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @params [con 连接, sql sql语句, generatedKeys 是否需要回显主键]
+     * @desc 获取PreparedStatement，事务中相同的sql会复用同一个，用完后必须调用release
+     **/
+    PreparedStatement prepare(Connection con, String sql, boolean generatedKeys) throws SQLException {
+        Holder holder = getHolder(con);
+        if (null == holder) {
+            return doPrepare(con, sql, generatedKeys);
+        }
+        String key = generatedKeys ? sql + GENERATED_KEYS_SUFFIX : sql;
+        PreparedStatement pst = holder.statements.get(key);
+        if (null != pst) {
+            hitCount.increment();
+            return pst;
+        }
+        missCount.increment();
+        pst = doPrepare(con, sql, generatedKeys);
+        holder.statements.put(key, pst);
+        holder.cached.add(pst);
+        return pst;
+    }
+
+    /**
+     * @params [con 连接, pst PreparedStatement]
+     * @desc 释放PreparedStatement，缓存中的清空参数和未执行的批量语句，其他的直接关闭。
+     * 批量执行中途失败时语句里还留着已加入的批次，不清空的话下次复用会把它们一起执行；清空失败时移出缓存并关闭
+     **/
+    void release(Connection con, PreparedStatement pst) throws SQLException {
+        Holder holder = capacity > 0 ? (Holder) TransactionSynchronizationManager.getResource(con) : null;
+        if (null == holder || !holder.cached.contains(pst)) {
+            pst.close();
+            return;
+        }
+        try {
+            pst.clearParameters();
+            pst.clearBatch();
+        } catch (SQLException e) {
+            holder.evict(pst);
+            throw e;
+        }
+    }
+
+    /**
+     * @desc 缓存的命中统计
+     **/
+    CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount.sum());
+    }
+
+    /**
+     * @params [con 连接]
+     * @desc 获取当前事务中该连接对应的缓存，第一次获取时绑定到事务上，事务结束时关闭所有语句
+     **/
+    private Holder getHolder(Connection con) {
+        if (capacity < 1 || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Holder holder = (Holder) TransactionSynchronizationManager.getResource(con);
+        if (null == holder) {
+            Holder newHolder = new Holder();
+            TransactionSynchronizationManager.bindResource(con, newHolder);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(con);
+                    newHolder.close();
+                }
+            });
+            holder = newHolder;
+        }
+        return holder;
+    }
+
+    /**
+     * @params [con 连接, sql sql语句, generatedKeys 是否需要回显主键]
+     * @desc 创建PreparedStatement
+     **/
+    private PreparedStatement doPrepare(Connection con, String sql, boolean generatedKeys) throws SQLException {
+        return generatedKeys ? con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : con.prepareStatement(sql);
+    }
+
+    /**
+     * @desc 一个连接上缓存的语句
+     */
+    private class Holder {
+        //sql->语句，按访问顺序排列，超出容量时关闭最久未使用的
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                evictionCount.increment();
+                cached.remove(eldest.getValue());
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        //缓存中的语句，用于release时判断
+        private final Set<PreparedStatement> cached = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private void evict(PreparedStatement pst) {
+            statements.values().removeIf(cachedPst -> cachedPst == pst);
+            cached.remove(pst);
+            closeQuietly(pst);
+        }
+
+        private void close() {
+            for (PreparedStatement pst : statements.values()) {
+                closeQuietly(pst);
+            }
+            statements.clear();
+            cached.clear();
+        }
+    }
+
+    /**
+     * @params [pst PreparedStatement]
+     * @desc 关闭语句，连接可能已经被关闭，忽略异常
+     **/
+    private static void closeQuietly(PreparedStatement pst) {
+        try {
+            pst.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package com.tm.orm.silence.core;
 
 import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.meta.EntityMeta;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.util.List;
-
-import static com.tm.orm.silence.util.StringUtil.toUnderscore;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * @author yudm
@@ -25,7 +28,7 @@ public class Table {
 
     /**
      * @params [entity 实体对象]
-     * @desc 单条插入，为null的字段会被过滤掉
+     * @desc 单条插入，为null的字段会被过滤掉，主键标注了@GeneratedId并且为空时先分配主键
      */
     public static int insert(Object entity) {
         notNull(entity, "entity");
@@ -43,7 +46,7 @@ public class Table {
 
     /**
      * @params [entities 实体对象列表]
-     * @desc 批量插入，为null的字段会被过滤掉
+     * @desc 批量插入，为null的字段会被过滤掉，主键标注了@GeneratedId时先为主键为空的对象分配主键
      */
     public static int insertList(List<?> entities) {
         notNull(entities, "entities");
@@ -54,11 +57,29 @@ public class Table {
      * @params [entities 实体对象列表]
      * @desc 批量插入，并回显主键的值，为null的字段会被过滤掉
      */
-    public static int insertListAndEchoId(List<Object> entities) {
+    public static int insertListAndEchoId(List<?> entities) {
         notNull(entities, "entities");
         return sqlExecutor.insertListAndEchoId(entities);
     }
 
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 根据主键批量更新，为null的字段会被过滤掉
+     */
+    public static int updateListById(List<?> entities) {
+        notNull(entities, "entities");
+        return sqlExecutor.updateListById(entities);
+    }
+
+    /**
+     * @params [entities 实体对象列表]
+     * @desc 根据主键批量删除
+     */
+    public static int deleteListById(List<?> entities) {
+        notNull(entities, "entities");
+        return sqlExecutor.deleteListById(entities);
+    }
+
     /**
      * @params [entity 实体对象, selective 是否过滤掉null]
      * @desc 根据主键更新
@@ -100,6 +121,7 @@ public class Table {
      **/
     public static <T> T selectById(Class<T> clazz, Object id) {
         notNull(clazz, "clazz");
+        notNull(id, "id");
         return sqlExecutor.selectById(clazz, id);
     }
 
@@ -109,7 +131,7 @@ public class Table {
      **/
     public static <T> List<T> selectAll(Class<T> clazz) {
         notNull(clazz, "clazz");
-        return sqlExecutor.simpleQueryList(clazz, "select * from " + toUnderscore(clazz.getSimpleName()));
+        return sqlExecutor.simpleQueryList(clazz, "select * from " + EntityMeta.of(clazz).getTableName());
     }
 
     /**
@@ -118,7 +140,7 @@ public class Table {
      **/
     public static int selectCount(Class<?> clazz) {
         notNull(clazz, "clazz");
-        return sqlExecutor.simpleQueryOne(Integer.class, "select count(*) from " + toUnderscore(clazz.getSimpleName()));
+        return sqlExecutor.simpleQueryOne(Integer.class, "select count(*) from " + EntityMeta.of(clazz).getTableName());
     }
 
     /**
@@ -142,7 +164,7 @@ public class Table {
 
     /**
      * @params [clazz 需要返回的对象字节码, page 分页对象, sql 简单查询sql语句, data 占位符对应的参数列表]
-     * @desc 通过简单sql语句分页查询
+     * @desc 通过简单sql语句分页查询，page通过Page.keyset创建时按排序键分页
      */
     public static <T> Page<T> simpleSelectPage(Class<T> clazz, Page<T> page, String sql, Object... data) {
         notNull(clazz, "clazz");
@@ -170,9 +192,51 @@ public class Table {
         return sqlExecutor.queryList(clazz, sql, data);
     }
 
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 通过带有动态语句的sql查询单个，结果被缓存，通过Table写入sql中涉及的表时失效，适合读多写少的查询
+     */
+    public static <T> T cachedSelectOne(Class<T> clazz, String sql, Object data) {
+        notNull(clazz, "clazz");
+        notNull(data, "data");
+        return sqlExecutor.cachedQueryOne(clazz, sql, data);
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 通过带有动态语句的sql查询多个，结果被缓存，通过Table写入sql中涉及的表时失效，适合读多写少的查询
+     */
+    public static <T> List<T> cachedSelectList(Class<T> clazz, String sql, Object data) {
+        notNull(clazz, "clazz");
+        notNull(data, "data");
+        return sqlExecutor.cachedQueryList(clazz, sql, data);
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数]
+     * @desc 通过带有动态语句的sql流式查询，结果逐行映射，内存占用与结果行数无关。返回的流占用一个连接，必须关闭。
+     * 分片的实体类不支持流式查询
+     */
+    public static <T> Stream<T> selectStream(Class<T> clazz, String sql, Object data) {
+        notNull(clazz, "clazz");
+        notNull(data, "data");
+        return sqlExecutor.queryStream(clazz, sql, data);
+    }
+
+    /**
+     * @params [clazz 需要返回的对象类型,sql 复杂查询sql语句，含有动态语句, data 参数, consumer 逐个处理结果的函数]
+     * @desc 通过带有动态语句的sql流式查询，逐个处理结果，处理完后自动释放连接。分片的实体类不支持流式查询
+     */
+    public static <T> void selectForEach(Class<T> clazz, String sql, Object data, Consumer<? super T> consumer) {
+        notNull(clazz, "clazz");
+        notNull(data, "data");
+        notNull(consumer, "consumer");
+        sqlExecutor.queryForEach(clazz, sql, data, consumer);
+    }
+
     /**
      * @params [clazz 需要返回的对象字节码, page 分页对象, sql 复杂查询sql语句，含有动态语句, data 占位符对应的参数列表]
-     * @desc 通过带有动态语句的sql分页查询
+     * @desc 通过带有动态语句的sql分页查询，page通过Page.keyset创建时按排序键分页
      */
     public static <T> Page<T> selectPage(Class<T> clazz, Page<T> page, String sql, Object data) {
         notNull(clazz, "clazz");
@@ -181,6 +245,44 @@ public class Table {
         return sqlExecutor.page(clazz, page, sql, data);
     }
 
+    /**
+     * @params [clazz 标注了@Cached的实体类]
+     * @desc 清空该类selectById的二级缓存，通过update、simpleUpdate直接执行sql修改了该表时需要调用
+     **/
+    public static void evictCache(Class<?> clazz) {
+        notNull(clazz, "clazz");
+        sqlExecutor.evictEntityCache(clazz);
+    }
+
+    /**
+     * @desc 获取异步版本的Table，所有操作返回CompletableFuture，不会加入调用者当前的事务
+     **/
+    public static AsyncTable async() {
+        return AsyncTable.INSTANCE;
+    }
+
+    /**
+     * @desc 创建一组并发执行的查询，先登记查询再调用execute，总耗时约等于最慢的那个查询
+     **/
+    public static QueryGroup parallel() {
+        return new QueryGroup(sqlExecutor);
+    }
+
+    /**
+     * @params [task 异步执行的任务]
+     * @desc 在调用线程确定数据源，任务在异步线程中执行时使用同一个数据源
+     **/
+    static <R> Supplier<R> bindRouter(Supplier<R> task) {
+        return sqlExecutor.bindRouter(task);
+    }
+
+    /**
+     * @desc 异步操作使用的线程池
+     **/
+    static Executor getAsyncExecutor() {
+        return sqlExecutor.getAsyncExecutor();
+    }
+
     /**
      * @params [obj 参数, msg 信息]
      * @desc 非空判断
@@ -190,11 +292,4 @@ public class Table {
             throw new SqlException(title + " can not be null");
         }
     }
-
-    /**
-     * @desc 获取service层调用者的包路径，用于切换数据源
-     **/
-    private static String getPackagePath() {
-        return Thread.currentThread().getStackTrace()[3].getClassName();
-    }
 }
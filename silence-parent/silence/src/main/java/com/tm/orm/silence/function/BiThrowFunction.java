@@ -0,0 +1,10 @@
+package com.tm.orm.silence.function;
+
+/**
+ * @author yudm
+ * @date 2021/9/5 16:20
+ */
+@FunctionalInterface
+public interface BiThrowFunction<T, U, R> {
+    R apply(T t, U u) throws Exception;
+}
@@ -0,0 +1,193 @@
+package com.tm.orm.silence.meta;
+
+import com.tm.orm.silence.annotation.Cached;
+import com.tm.orm.silence.annotation.GeneratedId;
+import com.tm.orm.silence.annotation.ShardKey;
+import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.util.ReflectUtil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static com.tm.orm.silence.util.StringUtil.toCamel;
+import static com.tm.orm.silence.util.StringUtil.toUnderscore;
+
+/**
+ * @author yudm
+ * @date 2021/8/9 9:05
+ * @desc 实体类的元数据，包括表名、主键、字段和列名的映射等，每个类只解析一次
+ */
+public class EntityMeta {
+    //每个类对应的元数据，随类一起回收
+    private static final ClassValue<EntityMeta> METAS = new ClassValue<EntityMeta>() {
+        @Override
+        protected EntityMeta computeValue(Class<?> type) {
+            return new EntityMeta(type);
+        }
+    };
+
+    private final Class<?> clazz;
+    //表名
+    private final String tableName;
+    //非静态字段，按声明顺序
+    private final List<FieldMeta> fields;
+    //字段名->字段
+    private final Map<String, FieldMeta> fieldMap;
+    //列名->字段，同时包含字段名，便于结果集直接用列名查找
+    private final Map<String, FieldMeta> columnMap;
+    //主键，即第一个非静态字段
+    private final FieldMeta idField;
+    //无参构造器
+    private final Supplier<Object> constructor;
+    //二级缓存配置，没有标注时为null
+    private final Cached cached;
+    //分片键，没有标注@ShardKey时为null
+    private final FieldMeta shardField;
+    //主键是否由IdGenerator生成，即主键字段标注了@GeneratedId
+    private final boolean generatedId;
+    //@GeneratedId支持的主键类型
+    private static final Set<Class<?>> GENERATED_ID_TYPES = new HashSet<>(Arrays.asList(Long.class, long.class, Integer.class, int.class, String.class));
+
+    private EntityMeta(Class<?> clazz) {
+        this.clazz = clazz;
+        this.constructor = ReflectUtil.constructor(clazz);
+        this.cached = clazz.getAnnotation(Cached.class);
+        this.tableName = toUnderscore(clazz.getSimpleName());
+        FieldMeta shardField = null;
+        List<FieldMeta> fields = new ArrayList<>();
+        Map<String, FieldMeta> fieldMap = new HashMap<>();
+        Map<String, FieldMeta> columnMap = new HashMap<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            //排除静态成员
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            FieldMeta fieldMeta = new FieldMeta(field);
+            fields.add(fieldMeta);
+            fieldMap.put(fieldMeta.getName(), fieldMeta);
+            columnMap.put(fieldMeta.getColumn(), fieldMeta);
+            columnMap.putIfAbsent(fieldMeta.getName(), fieldMeta);
+            if (null == shardField && field.isAnnotationPresent(ShardKey.class)) {
+                shardField = fieldMeta;
+            }
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        this.fieldMap = Collections.unmodifiableMap(fieldMap);
+        this.columnMap = Collections.unmodifiableMap(columnMap);
+        this.idField = fields.isEmpty() ? null : fields.get(0);
+        this.shardField = shardField;
+        this.generatedId = checkGeneratedId(fields);
+    }
+
+    /**
+     * @params [fields 非静态字段]
+     * @desc 检查@GeneratedId只能标注在支持的类型的主键上
+     **/
+    private static boolean checkGeneratedId(List<FieldMeta> fields) {
+        for (int i = 0; i < fields.size(); ++i) {
+            FieldMeta field = fields.get(i);
+            if (!field.getField().isAnnotationPresent(GeneratedId.class)) {
+                continue;
+            }
+            if (i > 0) {
+                throw new SqlException("@GeneratedId can only be used on the primary key, but found on " + field.getName());
+            }
+            if (!GENERATED_ID_TYPES.contains(field.getType())) {
+                throw new SqlException("@GeneratedId does not support the type " + field.getType().getName() + " of " + field.getName());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @params [clazz 实体类的字节码]
+     * @desc 获取实体类的元数据
+     **/
+    public static EntityMeta of(Class<?> clazz) {
+        return METAS.get(clazz);
+    }
+
+    /**
+     * @desc 通过无参构造器创建对象
+     **/
+    @SuppressWarnings("unchecked")
+    public <T> T newInstance() {
+        return (T) constructor.get();
+    }
+
+    /**
+     * @params [obj 源对象]
+     * @desc 浅拷贝对象的所有字段，用于缓存中的对象与调用者持有的对象隔离
+     **/
+    public <T> T copy(T obj) {
+        T copy = newInstance();
+        for (FieldMeta field : fields) {
+            field.set(copy, field.get(obj));
+        }
+        return copy;
+    }
+
+    public Class<?> getClazz() {
+        return clazz;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<FieldMeta> getFields() {
+        return fields;
+    }
+
+    public Map<String, FieldMeta> getFieldMap() {
+        return fieldMap;
+    }
+
+    /**
+     * @params [name 字段名]
+     * @desc 通过字段名获取字段
+     **/
+    public FieldMeta getField(String name) {
+        return fieldMap.get(name);
+    }
+
+    /**
+     * @params [column 结果集中的列名]
+     * @desc 通过列名获取字段，列名可以是下划线名或字段名
+     **/
+    public FieldMeta getByColumn(String column) {
+        FieldMeta fieldMeta = columnMap.get(column);
+        return null == fieldMeta ? fieldMap.get(toCamel(column)) : fieldMeta;
+    }
+
+    public Cached getCached() {
+        return cached;
+    }
+
+    /**
+     * @desc 获取分片键对应的字段，没有标注@ShardKey时为null
+     **/
+    public FieldMeta getShardField() {
+        return shardField;
+    }
+
+    /**
+     * @desc 主键是否由IdGenerator生成
+     **/
+    public boolean isGeneratedId() {
+        return generatedId;
+    }
+
+    /**
+     * @desc 获取主键对应的字段
+     **/
+    public FieldMeta getIdField() {
+        if (null == idField) {
+            throw new SqlException("can not find the field of primary key");
+        }
+        return idField;
+    }
+}
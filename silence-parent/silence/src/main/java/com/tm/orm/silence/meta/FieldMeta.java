@@ -0,0 +1,102 @@
+package com.tm.orm.silence.meta;
+
+import com.tm.orm.silence.util.ReflectUtil;
+
+import java.lang.reflect.Field;
+import java.util.function.*;
+
+import static com.tm.orm.silence.util.StringUtil.toUnderscore;
+
+/**
+ * @author yudm
+ * @date 2021/8/9 9:21
+ * @desc 实体类中一个字段的元数据
+ */
+public class FieldMeta {
+    //字段
+    private final Field field;
+    //字段名，即驼峰名
+    private final String name;
+    //列名，即下划线名
+    private final String column;
+    //读取器
+    private final Function<Object, Object> getter;
+    //写入器
+    private final BiConsumer<Object, Object> setter;
+    //int、long、double字段不经过装箱的写入器，其他类型为null
+    private final ObjIntConsumer<Object> intSetter;
+    private final ObjLongConsumer<Object> longSetter;
+    private final ObjDoubleConsumer<Object> doubleSetter;
+
+    FieldMeta(Field field) {
+        this.field = field;
+        this.name = field.getName();
+        this.column = toUnderscore(name);
+        this.getter = ReflectUtil.getter(field);
+        this.setter = ReflectUtil.setter(field);
+        Class<?> type = field.getType();
+        this.intSetter = int.class == type ? ReflectUtil.intSetter(field) : null;
+        this.longSetter = long.class == type ? ReflectUtil.longSetter(field) : null;
+        this.doubleSetter = double.class == type ? ReflectUtil.doubleSetter(field) : null;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Class<?> getType() {
+        return field.getType();
+    }
+
+    public boolean isPrimitive() {
+        return field.getType().isPrimitive();
+    }
+
+    /**
+     * @params [obj 目标对象]
+     * @desc 获取字段的值
+     **/
+    public Object get(Object obj) {
+        return getter.apply(obj);
+    }
+
+    /**
+     * @params [obj 目标对象, value 字段值]
+     * @desc 给字段设置值
+     **/
+    public void set(Object obj, Object value) {
+        setter.accept(obj, value);
+    }
+
+    /**
+     * @params [obj 目标对象, value 字段值]
+     * @desc 给int字段设置值
+     **/
+    public void setInt(Object obj, int value) {
+        intSetter.accept(obj, value);
+    }
+
+    /**
+     * @params [obj 目标对象, value 字段值]
+     * @desc 给long字段设置值
+     **/
+    public void setLong(Object obj, long value) {
+        longSetter.accept(obj, value);
+    }
+
+    /**
+     * @params [obj 目标对象, value 字段值]
+     * @desc 给double字段设置值
+     **/
+    public void setDouble(Object obj, double value) {
+        doubleSetter.accept(obj, value);
+    }
+}
@@ -0,0 +1,104 @@
+package com.tm.orm.silence.util;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * @author yudm
+ * @date 2021/9/1 10:20
+ * @desc 获取调用框架的业务类。java9+使用StackWalker，只遍历到第一个业务类的栈帧为止，并且不需要生成完整的异常栈；
+ * java8退化为Throwable.getStackTrace，类名到类的解析结果会被缓存
+ */
+public class CallerUtil {
+    //框架自身及jdk的类，获取调用者时跳过
+    private static final String[] SKIP_PREFIXES = {"com.tm.orm.silence.", "java.", "javax.", "jdk.", "sun."};
+    //StackWalker实例，java8时为null
+    private static final Object WALKER;
+    //StackWalker.walk
+    private static final Method WALK;
+    //StackWalker.StackFrame.getDeclaringClass
+    private static final Method GET_DECLARING_CLASS;
+    //java8时类名->类
+    private static final Map<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
+
+    static {
+        Object walker = null;
+        Method walk = null;
+        Method getDeclaringClass = null;
+        try {
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+            Object retainClass = optionClass.getField("RETAIN_CLASS_REFERENCE").get(null);
+            walker = walkerClass.getMethod("getInstance", optionClass).invoke(null, retainClass);
+            walk = walkerClass.getMethod("walk", Function.class);
+            getDeclaringClass = Class.forName("java.lang.StackWalker$StackFrame").getMethod("getDeclaringClass");
+        } catch (ReflectiveOperationException ignored) {
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walk;
+        GET_DECLARING_CLASS = getDeclaringClass;
+    }
+
+    /**
+     * @desc 获取调用框架的第一个业务类，找不到时返回null
+     **/
+    public static Class<?> getCallerClass() {
+        if (null != WALKER) {
+            try {
+                return (Class<?>) WALK.invoke(WALKER, (Function<Stream<?>, Class<?>>) frames -> frames
+                        .map(CallerUtil::getDeclaringClass)
+                        .filter(c -> !isSkipped(c.getName()))
+                        .findFirst()
+                        .orElse(null));
+            } catch (ReflectiveOperationException ignored) {
+            }
+        }
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!isSkipped(element.getClassName())) {
+                return CLASSES.computeIfAbsent(element.getClassName(), CallerUtil::loadClass);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @params [frame StackWalker.StackFrame]
+     * @desc 获取栈帧所在的类
+     **/
+    private static Class<?> getDeclaringClass(Object frame) {
+        try {
+            return (Class<?>) GET_DECLARING_CLASS.invoke(frame);
+        } catch (ReflectiveOperationException e) {
+            return Object.class;
+        }
+    }
+
+    /**
+     * @params [className 类名]
+     * @desc 是否是需要跳过的类
+     **/
+    private static boolean isSkipped(String className) {
+        for (String prefix : SKIP_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @params [className 类名]
+     * @desc 加载类，找不到时返回Object.class，当作没有任何路由配置的调用者
+     **/
+    private static Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException e) {
+            return Object.class;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.tm.orm.silence.util;
+
+import com.tm.orm.silence.exception.SqlException;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author yudm
+ * @date 2021/8/27 10:20
+ * @desc 线程池工具类，执行sql的线程池都是有界的，饱和时让调用线程等待，避免任务无限堆积而连接池早已耗尽
+ */
+public class ExecutorUtil {
+    //线程池队列长度相对线程数的倍数
+    private static final int QUEUE_FACTOR = 32;
+    //无法获取连接池大小时使用的默认值，与HikariCP的默认值相同
+    private static final int DEFAULT_POOL_SIZE = 10;
+    //通过submit(executor, task, timeoutNanos)提交时，等待线程池空位的截止时间(System.nanoTime)
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    /**
+     * @params [prefix 线程名前缀, threads 线程数]
+     * @desc 创建有界线程池，队列满时提交任务的线程等待队列有空位，形成背压而不是无限堆积。
+     * 任务不会在提交任务的线程中执行，否则会加入提交者当前的事务
+     **/
+    public static ExecutorService newBoundedExecutor(String prefix, int threads) {
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * QUEUE_FACTOR), r -> {
+            Thread thread = new Thread(r, prefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, ExecutorUtil::waitForQueue);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @params [executor 本类创建的线程池, task 任务, timeoutNanos 等待线程池空位的最长时间，纳秒]
+     * @desc 提交任务，线程池饱和时最多等待timeoutNanos，超时仍没有空位则抛出RejectedExecutionException
+     **/
+    public static <R> Future<R> submit(ExecutorService executor, Callable<R> task, long timeoutNanos) {
+        DEADLINE.set(System.nanoTime() + Math.max(timeoutNanos, 0));
+        try {
+            return executor.submit(task);
+        } finally {
+            DEADLINE.remove();
+        }
+    }
+
+    /**
+     * @params [task 被拒绝的任务, executor 线程池]
+     * @desc 队列满时阻塞直到放入队列，通过submit(executor, task, timeoutNanos)提交时最多等到截止时间。
+     * 线程池已关闭、等待超时或者等待时被中断则拒绝任务
+     **/
+    private static void waitForQueue(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        Long deadline = DEADLINE.get();
+        try {
+            if (null == deadline) {
+                executor.getQueue().put(task);
+            } else if (!executor.getQueue().offer(task, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new RejectedExecutionException("timed out waiting for the queue");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for the queue", e);
+        }
+        //放入队列的同时线程池被关闭，队列中的任务不会再被执行
+        if (executor.isShutdown() && executor.remove(task)) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+    }
+
+    /**
+     * @params [permits 同时执行的最大任务数]
+     * @desc 创建使用虚拟线程的线程池(java21+)，同时执行的任务数超过permits时提交任务的线程等待。
+     * 通过反射创建，当前jdk不支持虚拟线程时返回null
+     **/
+    public static ExecutorService newVirtualExecutor(int permits) {
+        try {
+            ExecutorService delegate = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new PermitExecutor(delegate, permits);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @params [dataSource 数据源]
+     * @desc 获取连接池的最大连接数，无法获取时返回HikariCP的默认值
+     **/
+    public static int getMaxPoolSize(DataSource dataSource) {
+        try {
+            if (dataSource instanceof HikariDataSource) {
+                return ((HikariDataSource) dataSource).getMaximumPoolSize();
+            }
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            }
+        } catch (SQLException ignored) {
+        }
+        return DEFAULT_POOL_SIZE;
+    }
+
+    /**
+     * @params [future 异步执行的结果]
+     * @desc 等待异步执行完成，执行中的SqlException原样抛出
+     **/
+    public static <R> R await(Future<R> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SqlException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SqlException) {
+                throw (SqlException) cause;
+            }
+            throw new SqlException(cause);
+        }
+    }
+
+    /**
+     * @desc 限制同时执行任务数的线程池，没有许可时提交任务的线程等待，通过submit(executor, task, timeoutNanos)提交时最多等到截止时间
+     */
+    private static class PermitExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private PermitExecutor(ExecutorService delegate, int permits) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(permits);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            acquire();
+            try {
+                delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void acquire() {
+            Long deadline = DEADLINE.get();
+            if (null == deadline) {
+                permits.acquireUninterruptibly();
+                return;
+            }
+            try {
+                if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new RejectedExecutionException("timed out waiting for a permit");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted while waiting for a permit", e);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.tm.orm.silence.util;
+
+import com.tm.orm.silence.meta.FieldMeta;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author yudm
+ * @date 2021/8/16 10:27
+ * @desc 按java类型选择jdbc的读写方法，避免getObject/setObject的装箱和驱动端的类型推断，读取时通过wasNull判断sql的NULL
+ */
+public enum JdbcType {
+    INT(Types.INTEGER) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            int v = rs.getInt(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        public boolean readInto(ResultSet rs, int i, Object target, FieldMeta field) throws SQLException {
+            if (!field.isPrimitive()) {
+                return super.readInto(rs, i, target, field);
+            }
+            int v = rs.getInt(i);
+            if (rs.wasNull()) {
+                return false;
+            }
+            field.setInt(target, v);
+            return true;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setInt(i, (Integer) value);
+        }
+    },
+    LONG(Types.BIGINT) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            long v = rs.getLong(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        public boolean readInto(ResultSet rs, int i, Object target, FieldMeta field) throws SQLException {
+            if (!field.isPrimitive()) {
+                return super.readInto(rs, i, target, field);
+            }
+            long v = rs.getLong(i);
+            if (rs.wasNull()) {
+                return false;
+            }
+            field.setLong(target, v);
+            return true;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setLong(i, (Long) value);
+        }
+    },
+    DOUBLE(Types.DOUBLE) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            double v = rs.getDouble(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        public boolean readInto(ResultSet rs, int i, Object target, FieldMeta field) throws SQLException {
+            if (!field.isPrimitive()) {
+                return super.readInto(rs, i, target, field);
+            }
+            double v = rs.getDouble(i);
+            if (rs.wasNull()) {
+                return false;
+            }
+            field.setDouble(target, v);
+            return true;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setDouble(i, (Double) value);
+        }
+    },
+    FLOAT(Types.REAL) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            float v = rs.getFloat(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setFloat(i, (Float) value);
+        }
+    },
+    SHORT(Types.SMALLINT) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            short v = rs.getShort(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setShort(i, (Short) value);
+        }
+    },
+    BYTE(Types.TINYINT) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            byte v = rs.getByte(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setByte(i, (Byte) value);
+        }
+    },
+    BOOLEAN(Types.BOOLEAN) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            boolean v = rs.getBoolean(i);
+            return rs.wasNull() ? null : v;
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setBoolean(i, (Boolean) value);
+        }
+    },
+    BIG_DECIMAL(Types.DECIMAL) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getBigDecimal(i);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setBigDecimal(i, (BigDecimal) value);
+        }
+    },
+    STRING(Types.VARCHAR) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getString(i);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setString(i, (String) value);
+        }
+    },
+    LOCAL_DATE_TIME(Types.TIMESTAMP) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getObject(i, LocalDateTime.class);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setObject(i, value, Types.TIMESTAMP);
+        }
+    },
+    LOCAL_DATE(Types.DATE) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getObject(i, LocalDate.class);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setObject(i, value, Types.DATE);
+        }
+    },
+    LOCAL_TIME(Types.TIME) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getObject(i, LocalTime.class);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setObject(i, value, Types.TIME);
+        }
+    },
+    TIMESTAMP(Types.TIMESTAMP) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getTimestamp(i);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            if (value instanceof Timestamp) {
+                pst.setTimestamp(i, (Timestamp) value);
+            } else {
+                pst.setTimestamp(i, new Timestamp(((java.util.Date) value).getTime()));
+            }
+        }
+    },
+    SQL_DATE(Types.DATE) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getDate(i);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setDate(i, (Date) value);
+        }
+    },
+    BYTES(Types.VARBINARY) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getBytes(i);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setBytes(i, (byte[]) value);
+        }
+    },
+    OBJECT(Types.NULL) {
+        @Override
+        public Object read(ResultSet rs, int i) throws SQLException {
+            return rs.getObject(i);
+        }
+
+        @Override
+        void doWrite(PreparedStatement pst, int i, Object value) throws SQLException {
+            pst.setObject(i, value);
+        }
+    };
+
+    //java类型->读写方式
+    private static final Map<Class<?>, JdbcType> TYPES = new HashMap<>();
+    //绑定null值时使用的java.sql.Types
+    private final int sqlType;
+
+    JdbcType(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    static {
+        TYPES.put(int.class, INT);
+        TYPES.put(Integer.class, INT);
+        TYPES.put(long.class, LONG);
+        TYPES.put(Long.class, LONG);
+        TYPES.put(double.class, DOUBLE);
+        TYPES.put(Double.class, DOUBLE);
+        TYPES.put(float.class, FLOAT);
+        TYPES.put(Float.class, FLOAT);
+        TYPES.put(short.class, SHORT);
+        TYPES.put(Short.class, SHORT);
+        TYPES.put(byte.class, BYTE);
+        TYPES.put(Byte.class, BYTE);
+        TYPES.put(boolean.class, BOOLEAN);
+        TYPES.put(Boolean.class, BOOLEAN);
+        TYPES.put(BigDecimal.class, BIG_DECIMAL);
+        TYPES.put(String.class, STRING);
+        TYPES.put(LocalDateTime.class, LOCAL_DATE_TIME);
+        TYPES.put(LocalDate.class, LOCAL_DATE);
+        TYPES.put(LocalTime.class, LOCAL_TIME);
+        TYPES.put(java.util.Date.class, TIMESTAMP);
+        TYPES.put(Timestamp.class, TIMESTAMP);
+        TYPES.put(Date.class, SQL_DATE);
+        TYPES.put(byte[].class, BYTES);
+    }
+
+    /**
+     * @params [type java类型]
+     * @desc 获取java类型对应的读写方式，未知类型使用getObject/setObject
+     **/
+    public static JdbcType of(Class<?> type) {
+        JdbcType jdbcType = TYPES.get(type);
+        return null == jdbcType ? OBJECT : jdbcType;
+    }
+
+    /**
+     * @params [pst PreparedStatement, i 占位符下标, value 值, type 值声明的类型，未知时为null]
+     * @desc 按值的类型填充占位符，值为null时按声明的类型调用setNull，声明的类型未知时使用setObject(i, null)
+     **/
+    public static void bind(PreparedStatement pst, int i, Object value, Class<?> type) throws SQLException {
+        if (null != value) {
+            of(value.getClass()).doWrite(pst, i, value);
+            return;
+        }
+        JdbcType jdbcType = null == type ? OBJECT : of(type);
+        if (OBJECT == jdbcType) {
+            pst.setObject(i, null);
+        } else {
+            pst.setNull(i, jdbcType.sqlType);
+        }
+    }
+
+    /**
+     * @params [rs 结果集, i 列下标]
+     * @desc 读取一列的值，sql的NULL返回null
+     **/
+    public abstract Object read(ResultSet rs, int i) throws SQLException;
+
+    /**
+     * @params [rs 结果集, i 列下标, target 目标对象, field 字段]
+     * @desc 读取一列的值并写入字段，基本类型字段不经过装箱。返回值是否不为NULL，
+     * 值为NULL时引用类型的字段写入null(覆盖字段的初始值)，基本类型的字段无法表示null，保持默认值
+     **/
+    public boolean readInto(ResultSet rs, int i, Object target, FieldMeta field) throws SQLException {
+        Object value = read(rs, i);
+        if (null == value && field.isPrimitive()) {
+            return false;
+        }
+        field.set(target, value);
+        return null != value;
+    }
+
+    /**
+     * @params [pst PreparedStatement, i 占位符下标, value 非null的值]
+     * @desc 填充非null的占位符
+     **/
+    abstract void doWrite(PreparedStatement pst, int i, Object value) throws SQLException;
+}
@@ -0,0 +1,212 @@
+package com.tm.orm.silence.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.temporal.Temporal;
+import java.util.*;
+
+/**
+ * @author yudm
+ * @date 2021/8/12 14:03
+ * @desc 结果集到对象的映射计划。按(返回类型, 列名)解析一次，得到按列下标排好的写入器和读取方式，
+ * 之后每行只需按字段类型调用rs.getXxx(i)并调用写入器。列名中的 a__b 表示子对象a的字段b，可以多级嵌套
+ */
+public class MappingPlan {
+    //最多缓存的映射计划数量
+    private static final int PLAN_CACHE_SIZE = 1024;
+    //映射计划，key为返回类型和结果集列名
+    private static final Cache<Key, MappingPlan> PLANS = CacheBuilder.newBuilder().maximumSize(PLAN_CACHE_SIZE).build();
+    //子对象列名的分隔符
+    private static final String CHILD_SEPARATOR = "__";
+
+    //返回类型是单值类型时直接取第一列
+    private final JdbcType valueType;
+    //返回类型是实体类时的映射节点
+    private final Node root;
+
+    private MappingPlan(JdbcType valueType, Node root) {
+        this.valueType = valueType;
+        this.root = root;
+    }
+
+    /**
+     * @params [md 结果集元数据, clazz 需要返回对象的字节码]
+     * @desc 获取结果集对应的映射计划，同一个返回类型和列名组合只解析一次
+     **/
+    public static MappingPlan of(ResultSetMetaData md, Class<?> clazz) throws SQLException {
+        int count = md.getColumnCount();
+        String[] labels = new String[count];
+        for (int i = 0; i < count; ++i) {
+            labels[i] = md.getColumnLabel(i + 1);
+        }
+        Key key = new Key(clazz, labels);
+        MappingPlan plan = PLANS.getIfPresent(key);
+        if (null == plan) {
+            plan = isValueType(clazz) ? new MappingPlan(JdbcType.of(clazz), null) : new MappingPlan(null, buildNode(EntityMeta.of(clazz), labels));
+            PLANS.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @params [rs 结果集，已经指向当前行]
+     * @desc 映射当前行到一个对象中
+     **/
+    @SuppressWarnings("unchecked")
+    public <T> T mapRow(ResultSet rs) throws SQLException {
+        if (null != valueType) {
+            return (T) valueType.read(rs, 1);
+        }
+        return (T) root.map(rs, true);
+    }
+
+    /**
+     * @params [clazz 返回类型]
+     * @desc 判断是否是直接取第一列的单值类型
+     **/
+    public static boolean isValueType(Class<?> clazz) {
+        return clazz.isPrimitive() || Number.class.isAssignableFrom(clazz) || CharSequence.class.isAssignableFrom(clazz)
+                || Boolean.class == clazz || Character.class == clazz || Date.class.isAssignableFrom(clazz)
+                || Temporal.class.isAssignableFrom(clazz) || byte[].class == clazz;
+    }
+
+    /**
+     * @params [meta 实体类元数据, labels 结果集列名]
+     * @desc 根据列名构建映射节点树，找不到字段的列被忽略
+     **/
+    private static Node buildNode(EntityMeta meta, String[] labels) {
+        Node root = new Node(meta);
+        for (int i = 0; i < labels.length; ++i) {
+            String[] path = labels[i].split(CHILD_SEPARATOR);
+            Node node = root;
+            for (int j = 0; j < path.length - 1 && null != node; ++j) {
+                node = node.child(path[j]);
+            }
+            if (null == node) {
+                continue;
+            }
+            FieldMeta field = node.meta.getByColumn(path[path.length - 1]);
+            if (null != field) {
+                node.add(i + 1, field);
+            }
+        }
+        root.freeze();
+        return root;
+    }
+
+    /**
+     * @desc 映射节点，对应一个对象
+     */
+    private static class Node {
+        private final EntityMeta meta;
+        //列下标
+        private int[] columns = new int[0];
+        //列对应的字段
+        private FieldMeta[] fields = new FieldMeta[0];
+        //列的读取方式
+        private JdbcType[] types = new JdbcType[0];
+        //子对象对应的父字段
+        private FieldMeta[] childFields = new FieldMeta[0];
+        //子对象的节点
+        private Node[] children = new Node[0];
+        //构建过程中临时使用
+        private List<Integer> columnList = new ArrayList<>();
+        private List<FieldMeta> fieldList = new ArrayList<>();
+        private Map<FieldMeta, Node> childMap = new LinkedHashMap<>();
+
+        private Node(EntityMeta meta) {
+            this.meta = meta;
+        }
+
+        private void add(int column, FieldMeta field) {
+            columnList.add(column);
+            fieldList.add(field);
+        }
+
+        private Node child(String name) {
+            FieldMeta field = meta.getByColumn(name);
+            return null == field ? null : childMap.computeIfAbsent(field, f -> new Node(EntityMeta.of(f.getType())));
+        }
+
+        private void freeze() {
+            columns = new int[columnList.size()];
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i] = columnList.get(i);
+            }
+            fields = fieldList.toArray(new FieldMeta[0]);
+            types = new JdbcType[fields.length];
+            for (int i = 0; i < types.length; ++i) {
+                types[i] = JdbcType.of(fields[i].getType());
+            }
+            childFields = childMap.keySet().toArray(new FieldMeta[0]);
+            children = childMap.values().toArray(new Node[0]);
+            for (Node child : children) {
+                child.freeze();
+            }
+            columnList = null;
+            fieldList = null;
+            childMap = null;
+        }
+
+        /**
+         * @params [rs 结果集, root 是否是根节点]
+         * @desc 映射一个对象，NULL列对应的引用类型字段写入null。子对象的列全部为NULL时不创建子对象，
+         * 是否有非NULL的列只用于判断是否创建子对象，与字段是否写入无关
+         **/
+        private Object map(ResultSet rs, boolean root) throws SQLException {
+            Object obj = meta.newInstance();
+            boolean any = root;
+            for (int i = 0; i < columns.length; ++i) {
+                if (types[i].readInto(rs, columns[i], obj, fields[i])) {
+                    any = true;
+                }
+            }
+            for (int i = 0; i < children.length; ++i) {
+                Object child = children[i].map(rs, false);
+                if (null != child) {
+                    childFields[i].set(obj, child);
+                    any = true;
+                }
+            }
+            return any ? obj : null;
+        }
+    }
+
+    /**
+     * @desc 映射计划的缓存key
+     */
+    private static class Key {
+        private final Class<?> clazz;
+        private final String[] labels;
+        private final int hash;
+
+        private Key(Class<?> clazz, String[] labels) {
+            this.clazz = clazz;
+            this.labels = labels;
+            this.hash = 31 * clazz.hashCode() + Arrays.hashCode(labels);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return clazz == key.clazz && Arrays.equals(labels, key.labels);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
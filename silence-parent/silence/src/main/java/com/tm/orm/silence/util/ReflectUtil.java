@@ -1,10 +1,16 @@
 package com.tm.orm.silence.util;
 
 import com.tm.orm.silence.exception.SqlException;
+import com.tm.orm.silence.meta.EntityMeta;
+import com.tm.orm.silence.meta.FieldMeta;
 
+import java.lang.invoke.*;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.function.*;
 
 /**
  * @author yudm
@@ -12,11 +18,18 @@ import java.util.*;
  * @desc 反射工具类
  */
 public class ReflectUtil {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
     /**
      * @params [obj 目标对象, field 字段, value 字段值]
-     * @desc 给某个对象的某个字段设置值
+     * @desc 给某个对象的某个字段设置值，非静态字段使用缓存的访问器
      **/
     public static void setFieldValue(Object obj, Field field, Object value) {
+        FieldMeta fieldMeta = Modifier.isStatic(field.getModifiers()) ? null : EntityMeta.of(field.getDeclaringClass()).getField(field.getName());
+        if (null != fieldMeta) {
+            fieldMeta.set(obj, value);
+            return;
+        }
         boolean flag = field.isAccessible();
         field.setAccessible(true);
         try {
@@ -30,9 +43,13 @@ public class ReflectUtil {
 
     /**
      * @params [obj 目标对象, field 字段]
-     * @desc 获取字段的值
+     * @desc 获取字段的值，非静态字段使用缓存的访问器
      **/
     public static Object getFieldValue(Object obj, Field field) {
+        FieldMeta fieldMeta = Modifier.isStatic(field.getModifiers()) ? null : EntityMeta.of(field.getDeclaringClass()).getField(field.getName());
+        if (null != fieldMeta) {
+            return fieldMeta.get(obj);
+        }
         boolean accessible = field.isAccessible();
         field.setAccessible(true);
         try {
@@ -45,60 +62,279 @@ public class ReflectUtil {
     }
 
     /**
-     * @params [clazz 需要返回对象的字节码]
-     * @desc 一次性获取clazz的所有字段并转化成name->field的map
-     */
-    public static Map<String, Field> getFieldMap(Class<?> clazz) {
-        Field[] fields = clazz.getDeclaredFields();
-        Map<String, Field> fieldMap = new HashMap<>();
-        for (Field field : fields) {
-            fieldMap.put(field.getName(), field);
+     * @params [field 字段]
+     * @desc 生成字段的读取器：有公共getter时用LambdaMetafactory生成直接调用getter的函数，否则用MethodHandle直接读字段
+     **/
+    public static Function<Object, Object> getter(Field field) {
+        Class<?> clazz = field.getDeclaringClass();
+        String suffix = capitalize(field.getName());
+        Method method = findMethod(clazz, (field.getType() == boolean.class ? "is" : "get") + suffix, field.getType());
+        if (null != method && isVisible(clazz)) {
+            try {
+                MethodHandle target = LOOKUP.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class), target, MethodType.methodType(wrap(field.getType()), clazz));
+                @SuppressWarnings("unchecked")
+                Function<Object, Object> getter = (Function<Object, Object>) site.getTarget().invoke();
+                return getter;
+            } catch (Throwable ignored) {
+                //退回到MethodHandle
+            }
+        }
+        try {
+            field.setAccessible(true);
+            MethodHandle mh = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            return obj -> {
+                try {
+                    return mh.invokeExact(obj);
+                } catch (Throwable t) {
+                    throw new SqlException("can not get the value of field:" + field.getName(), t);
+                }
+            };
+        } catch (Exception e) {
+            return obj -> {
+                throw new SqlException("can not access field:" + field.getName(), e);
+            };
         }
-        return fieldMap;
     }
 
     /**
-     * @params [clazz 实体对象的字节码]
-     * @desc 获取主键对应的字段
-     */
-    public static Field getIdField(Class<?> clazz) {
-        Field[] fields = clazz.getDeclaredFields();
-        Field idField = null;
-        for (Field field : fields) {
-            if (!Modifier.isStatic(field.getModifiers())) {
-                idField = field;
-                break;
+     * @params [field 字段]
+     * @desc 生成字段的写入器：有公共setter时用LambdaMetafactory生成直接调用setter的函数，否则用MethodHandle直接写字段，基本类型字段忽略null
+     **/
+    public static BiConsumer<Object, Object> setter(Field field) {
+        Class<?> clazz = field.getDeclaringClass();
+        Method method = findMethod(clazz, "set" + capitalize(field.getName()), null, field.getType());
+        BiConsumer<Object, Object> setter = null;
+        if (null != method && isVisible(clazz)) {
+            try {
+                MethodHandle target = LOOKUP.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept", MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class), target, MethodType.methodType(void.class, clazz, wrap(field.getType())));
+                @SuppressWarnings("unchecked")
+                BiConsumer<Object, Object> s = (BiConsumer<Object, Object>) site.getTarget().invoke();
+                setter = s;
+            } catch (Throwable ignored) {
+                //退回到MethodHandle
+            }
+        }
+        if (null == setter) {
+            try {
+                field.setAccessible(true);
+                MethodHandle mh = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                setter = (obj, value) -> {
+                    try {
+                        mh.invokeExact(obj, value);
+                    } catch (Throwable t) {
+                        throw new SqlException("can not set the value of field:" + field.getName(), t);
+                    }
+                };
+            } catch (Exception e) {
+                return (obj, value) -> {
+                    throw new SqlException("can not access field:" + field.getName(), e);
+                };
             }
         }
-        if (null == idField) {
-            throw new SqlException("can not find the field of primary key");
+        if (field.getType().isPrimitive()) {
+            BiConsumer<Object, Object> s = setter;
+            return (obj, value) -> {
+                if (null != value) {
+                    s.accept(obj, value);
+                }
+            };
         }
-        return idField;
+        return setter;
     }
 
     /**
-     * @params [fields 字段列表]
-     * @desc 获取字段名
-     */
-    public static List<String> getFieldNames(List<Field> fields) {
-        List<String> names = new ArrayList<>();
-        for (Field field : fields) {
-            names.add(field.getName());
+     * @params [field int类型的字段]
+     * @desc 生成不经过装箱的int字段写入器
+     **/
+    public static ObjIntConsumer<Object> intSetter(Field field) {
+        MethodHandle mh = primitiveSetter(field, int.class);
+        ObjIntConsumer<Object> setter = spin(field, ObjIntConsumer.class, int.class);
+        return null != setter ? setter : (obj, value) -> {
+            try {
+                mh.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw new SqlException("can not set the value of field:" + field.getName(), t);
+            }
+        };
+    }
+
+    /**
+     * @params [field long类型的字段]
+     * @desc 生成不经过装箱的long字段写入器
+     **/
+    public static ObjLongConsumer<Object> longSetter(Field field) {
+        MethodHandle mh = primitiveSetter(field, long.class);
+        ObjLongConsumer<Object> setter = spin(field, ObjLongConsumer.class, long.class);
+        return null != setter ? setter : (obj, value) -> {
+            try {
+                mh.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw new SqlException("can not set the value of field:" + field.getName(), t);
+            }
+        };
+    }
+
+    /**
+     * @params [field double类型的字段]
+     * @desc 生成不经过装箱的double字段写入器
+     **/
+    public static ObjDoubleConsumer<Object> doubleSetter(Field field) {
+        MethodHandle mh = primitiveSetter(field, double.class);
+        ObjDoubleConsumer<Object> setter = spin(field, ObjDoubleConsumer.class, double.class);
+        return null != setter ? setter : (obj, value) -> {
+            try {
+                mh.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw new SqlException("can not set the value of field:" + field.getName(), t);
+            }
+        };
+    }
+
+    /**
+     * @params [field 基本类型的字段, type 基本类型]
+     * @desc 直接写字段的MethodHandle，参数为(Object, 基本类型)
+     **/
+    private static MethodHandle primitiveSetter(Field field, Class<?> type) {
+        if (field.getType() != type) {
+            throw new SqlException(field.getName() + " is not a field of " + type.getName());
+        }
+        try {
+            field.setAccessible(true);
+            return LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, type));
+        } catch (Exception e) {
+            throw new SqlException("can not access field:" + field.getName(), e);
+        }
+    }
+
+    /**
+     * @params [field 基本类型的字段, fn 函数式接口, type 基本类型]
+     * @desc 用LambdaMetafactory生成调用公共setter的基本类型写入器，无法生成时返回null
+     **/
+    @SuppressWarnings("unchecked")
+    private static <F> F spin(Field field, Class<?> fn, Class<?> type) {
+        Class<?> clazz = field.getDeclaringClass();
+        Method method = findMethod(clazz, "set" + capitalize(field.getName()), null, type);
+        if (null == method || !isVisible(clazz)) {
+            return null;
+        }
+        try {
+            MethodHandle target = LOOKUP.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept", MethodType.methodType(fn),
+                    MethodType.methodType(void.class, Object.class, type), target, MethodType.methodType(void.class, clazz, type));
+            return (F) site.getTarget().invoke();
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * @params [clazz 需要创建对象的字节码]
+     * @desc 生成无参构造器，公共构造器用LambdaMetafactory生成，否则用MethodHandle
+     **/
+    public static Supplier<Object> constructor(Class<?> clazz) {
+        Constructor<?> constructor;
+        try {
+            constructor = clazz.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return () -> {
+                throw new SqlException(clazz.getName() + " does not have a no-arg constructor");
+            };
+        }
+        if (Modifier.isPublic(constructor.getModifiers()) && isVisible(clazz)) {
+            try {
+                MethodHandle target = LOOKUP.unreflectConstructor(constructor);
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                        MethodType.methodType(Object.class), target, MethodType.methodType(clazz));
+                @SuppressWarnings("unchecked")
+                Supplier<Object> supplier = (Supplier<Object>) site.getTarget().invoke();
+                return supplier;
+            } catch (Throwable ignored) {
+                //退回到MethodHandle
+            }
+        }
+        try {
+            constructor.setAccessible(true);
+            MethodHandle mh = LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return mh.invokeExact();
+                } catch (Throwable t) {
+                    throw new SqlException("can not create instance of " + clazz.getName(), t);
+                }
+            };
+        } catch (Exception e) {
+            return () -> {
+                throw new SqlException("can not create instance of " + clazz.getName(), e);
+            };
+        }
+    }
+
+    /**
+     * @params [clazz 类, name 方法名, returnType 返回类型，为null时不校验, paramTypes 参数类型]
+     * @desc 查找公共的非静态方法
+     **/
+    private static Method findMethod(Class<?> clazz, String name, Class<?> returnType, Class<?>... paramTypes) {
+        try {
+            Method method = clazz.getMethod(name, paramTypes);
+            if (Modifier.isStatic(method.getModifiers()) || (null != returnType && method.getReturnType() != returnType)) {
+                return null;
+            }
+            return method;
+        } catch (NoSuchMethodException e) {
+            return null;
         }
-        return names;
+    }
+
+    /**
+     * @params [clazz 类]
+     * @desc 生成的函数定义在本类的类加载器中，只有公共的并且对本类的类加载器可见的类才能使用LambdaMetafactory
+     **/
+    private static boolean isVisible(Class<?> clazz) {
+        if (!Modifier.isPublic(clazz.getModifiers())) {
+            return false;
+        }
+        try {
+            return Class.forName(clazz.getName(), false, ReflectUtil.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * @params [type 类型]
+     * @desc 基本类型转为包装类型
+     **/
+    private static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+
+    /**
+     * @params [clazz 实体对象的字节码]
+     * @desc 获取主键对应的字段
+     */
+    public static Field getIdField(Class<?> clazz) {
+        return EntityMeta.of(clazz).getIdField().getField();
     }
 
     /**
      * @params [data 入参对象,fields 字段列表]
      * @desc 获取字段的值
      */
-    public static List<Object> getValues(Object entity, List<Field> fields) {
+    public static List<Object> getValues(Object entity, List<FieldMeta> fields) {
         if (null == entity) {
             throw new SqlException("entity can not be null");
         }
-        List<Object> columns = new ArrayList<>();
-        for (Field field : fields) {
-            columns.add(getFieldValue(entity, field));
+        List<Object> columns = new ArrayList<>(fields.size());
+        for (FieldMeta field : fields) {
+            columns.add(field.get(entity));
         }
         return columns;
     }
@@ -143,7 +379,7 @@ public class ReflectUtil {
         } else if (!(value instanceof Map<?, ?>)) {
             throw new SqlException("there is no param named:" + key);
         }
-        return getValueFromMap((Map<?, ?>) value, key.substring(firstIndex + 1, key.length() - 1));
+        return getValueFromMap((Map<?, ?>) value, key.substring(firstIndex + 1));
     }
 
     /**
@@ -165,9 +401,8 @@ public class ReflectUtil {
                 param.put(realKey, v);
             });
         } else {
-            Field[] fields = obj.getClass().getDeclaredFields();
-            for (Field field : fields) {
-                param.put(field.getName(), getFieldValue(obj, field));
+            for (FieldMeta field : EntityMeta.of(obj.getClass()).getFields()) {
+                param.put(field.getName(), field.get(obj));
             }
         }
         //将key按照父级key聚合
@@ -180,7 +415,7 @@ public class ReflectUtil {
             //子对象名
             String head = key.substring(0, firstIndex);
             //子对象中字段名
-            String left = key.substring(firstIndex + 1, key.length() - 1);
+            String left = key.substring(firstIndex + 1);
             List<String> lefts = keyMap.get(head);
             if (null == lefts) {
                 lefts = new ArrayList<>();
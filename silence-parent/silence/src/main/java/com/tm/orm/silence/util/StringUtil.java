@@ -1,11 +1,12 @@
 package com.tm.orm.silence.util;
 
 import com.google.common.base.CaseFormat;
-import com.tm.orm.silence.core.SqlBuilder;
 import com.tm.orm.silence.exception.SqlException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,8 +48,16 @@ public class StringUtil {
     public static final Pattern NORMAL_PARAM = Pattern.compile("\\$\\{.*?}");
     //非预编译参数语句块特殊字符
     public static final Pattern NORMAL_PARAM_LABEL = Pattern.compile("\\$\\{|}");
+    //预编译和非预编译参数语句块
+    public static final Pattern ALL_PARAM = Pattern.compile("[#$]\\{.*?}");
     //单引号
     public static final Pattern SINGLY_QUOTED = Pattern.compile("'");
+    //最多缓存的驼峰下划线转换结果数量
+    private static final int CASE_CACHE_SIZE = 8192;
+    //驼峰->下划线的转换结果
+    private static final Map<String, String> UNDERSCORE_CACHE = new ConcurrentHashMap<>();
+    //下划线->驼峰的转换结果
+    private static final Map<String, String> CAMEL_CACHE = new ConcurrentHashMap<>();
 
     /**
      * @params [str, pattern, replacement]
@@ -104,7 +113,14 @@ public class StringUtil {
      * @desc 转小写下划线
      **/
     public static String toUnderscore(String str) {
-        return CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, str);
+        String s = UNDERSCORE_CACHE.get(str);
+        if (null == s) {
+            s = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, str);
+            if (UNDERSCORE_CACHE.size() < CASE_CACHE_SIZE) {
+                UNDERSCORE_CACHE.put(str, s);
+            }
+        }
+        return s;
     }
 
     /**
@@ -112,7 +128,14 @@ public class StringUtil {
      * @desc 转小写驼峰
      **/
     public static String toCamel(String str) {
-        return CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, str);
+        String s = CAMEL_CACHE.get(str);
+        if (null == s) {
+            s = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, str);
+            if (CAMEL_CACHE.size() < CASE_CACHE_SIZE) {
+                CAMEL_CACHE.put(str, s);
+            }
+        }
+        return s;
     }
 
     /**